@@ -41,7 +41,7 @@ public class ConsumerStubTests {
 
         countDownLatch.await(1000, TimeUnit.MILLISECONDS);
         assertEquals(0, countDownLatch.getCount());
-        assertEquals(2, thingEventRepository.count()); // FIXME not sure why it publishes twice
+        assertEquals(1, thingEventRepository.count()); // the stub publishes the event twice, the duplicate isn't saved
     }
 
     // TODO test getting the Thing via web API stub
@@ -4,21 +4,30 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import dev.samsanders.demo.rabbitmq.consumer.thing.ThingEventRepository;
+import dev.samsanders.demo.rabbitmq.consumer.thing.ThingHighWaterMarkRepository;
 import dev.samsanders.demo.rabbitmq.consumer.thing.ThingRepository;
 import org.springframework.amqp.core.*;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.listener.AbstractMessageListenerContainer;
 import org.springframework.amqp.rabbit.listener.DirectMessageListenerContainer;
 import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
 import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.web.client.RestTemplate;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
 @Configuration
 public class ConsumerConfiguration {
 
@@ -42,27 +51,101 @@ public class ConsumerConfiguration {
         return BindingBuilder.bind(queue).to(exchange);
     }
 
+    /**
+     * Single active consumer keeps each partition in order, but the first instance to start works all of them.
+     */
+    @ConditionalOnProperty("consumer.partitions.enabled")
+    @Bean
+    Declarables partitionedTopology(
+            @Value("${consumer.partitions.exchange-name:publisher-thing-events-partitioned}") String exchangeName,
+            @Value("${consumer.partitions.count:8}") int partitions) {
+        DirectExchange partitionedExchange = new DirectExchange(exchangeName);
+
+        List<Declarable> declarables = new ArrayList<>();
+        declarables.add(partitionedExchange);
+        for (int partition = 0; partition < partitions; partition++) {
+            Queue partitionQueue = QueueBuilder.durable(String.format("consumer-thing-events-%d", partition))
+                    .singleActiveConsumer()
+                    .build();
+            declarables.add(partitionQueue);
+            declarables.add(BindingBuilder.bind(partitionQueue)
+                    .to(partitionedExchange)
+                    .with(String.valueOf(partition)));
+        }
+
+        return new Declarables(declarables);
+    }
+
     @Bean
     MessageListenerContainer messageListenerContainer(AbstractMessageListenerContainer messageListenerContainer,
                                                       Queue queue,
+                                                      ObjectProvider<Declarables> partitionedTopology,
                                                       ThingEventConsumer thingEventConsumer) {
-        messageListenerContainer.setQueueNames(queue.getName());
+        Declarables partitions = partitionedTopology.getIfAvailable();
+        messageListenerContainer.setQueueNames(partitions == null
+                ? new String[]{queue.getName()}
+                : partitions.getDeclarablesByType(Queue.class).stream().map(Queue::getName).toArray(String[]::new));
         messageListenerContainer.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        messageListenerContainer.setDeBatchingEnabled(false);
         messageListenerContainer.setMessageListener(thingEventConsumer);
 
         return messageListenerContainer;
     }
 
+    /**
+     * The DirectMessageListenerContainer can't assemble batches for a listener.
+     */
     @Profile("!test")
     @Bean
-    AbstractMessageListenerContainer abstractMessageListenerContainer(ConnectionFactory connectionFactory) {
-        return new DirectMessageListenerContainer(connectionFactory);
+    AbstractMessageListenerContainer abstractMessageListenerContainer(
+            ConnectionFactory connectionFactory,
+            @Value("${consumer.prefetch:250}") int prefetch,
+            @Value("${consumer.batch.enabled:false}") boolean batchEnabled,
+            @Value("${consumer.batch.size:100}") int batchSize,
+            @Value("${consumer.batch.receive-timeout-ms:100}") long receiveTimeout) {
+        if (!batchEnabled) {
+            DirectMessageListenerContainer directMessageListenerContainer =
+                    new DirectMessageListenerContainer(connectionFactory);
+            directMessageListenerContainer.setPrefetchCount(prefetch);
+            return directMessageListenerContainer;
+        }
+
+        SimpleMessageListenerContainer simpleMessageListenerContainer =
+                new SimpleMessageListenerContainer(connectionFactory);
+        simpleMessageListenerContainer.setConsumerBatchEnabled(true);
+        simpleMessageListenerContainer.setBatchSize(batchSize);
+        simpleMessageListenerContainer.setReceiveTimeout(receiveTimeout);
+        simpleMessageListenerContainer.setPrefetchCount(Math.max(prefetch, batchSize));
+        return simpleMessageListenerContainer;
     }
 
     @Bean
     ThingEventConsumer thingEventConsumer(Jackson2JsonMessageConverter jackson2JsonMessageConverter,
-                                          ThingEventRepository thingEventRepository) {
-        return new ThingEventConsumer(jackson2JsonMessageConverter, thingEventRepository);
+                                          ThingEventRepository thingEventRepository,
+                                          ThingEventCodec thingEventCodec,
+                                          ThingHighWaterMarks thingHighWaterMarks,
+                                          ThingEventReceipts thingEventReceipts,
+                                          PlatformTransactionManager transactionManager) {
+        return new ThingEventConsumer(jackson2JsonMessageConverter, thingEventRepository, thingEventCodec,
+                thingHighWaterMarks, thingEventReceipts, transactionManager);
+    }
+
+    @Bean
+    ThingEventReceipts thingEventReceipts(ThingEventRepository thingEventRepository,
+                                          @Value("${consumer.receipts.recent-capacity:100000}") int capacity) {
+        return new ThingEventReceipts(thingEventRepository, capacity);
+    }
+
+    @Bean
+    ThingHighWaterMarks thingHighWaterMarks(ThingHighWaterMarkRepository thingHighWaterMarkRepository,
+                                            @Value("${consumer.high-water-marks.capacity:100000}") int capacity) {
+        return new ThingHighWaterMarks(thingHighWaterMarkRepository, capacity);
+    }
+
+    @Bean
+    ThingEventCodec thingEventCodec(
+            @Value("${consumer.publisher.base-urls:http://localhost:8080}") List<String> baseUrls) {
+        return new ThingEventCodec(baseUrls);
     }
 
     @Bean
@@ -76,8 +159,24 @@ public class ConsumerConfiguration {
 
     @Bean
     ThingGetter thingGetter(ThingEventRepository thingEventRepository, RestTemplate restTemplate,
-                            ThingRepository thingRepository) {
-        return new ThingGetter(thingEventRepository, restTemplate, thingRepository);
+                            ThingRepository thingRepository, ThingHighWaterMarks thingHighWaterMarks,
+                            PlatformTransactionManager transactionManager,
+                            @Value("${consumer.getter.parallelism:8}") int parallelism,
+                            @Value("${consumer.getter.node-id:${random.uuid}}") String nodeId,
+                            @Value("${consumer.getter.lease-duration:30s}") Duration leaseDuration,
+                            @Value("${consumer.getter.page-size:500}") int pageSize) {
+        return new ThingGetter(thingEventRepository, restTemplate, thingRepository, thingHighWaterMarks,
+                transactionManager, parallelism, nodeId, leaseDuration, pageSize);
+    }
+
+    @Bean
+    ThingEventRetention thingEventRetention(
+            ThingEventRepository thingEventRepository,
+            @Value("${consumer.retention.max-age:7d}") Duration maxAge,
+            @Value("${consumer.retention.max-consumed:100000}") long maxConsumed,
+            @Value("${consumer.retention.batch-size:1000}") int batchSize,
+            @Value("${consumer.retention.max-batches-per-run:100}") int maxBatchesPerRun) {
+        return new ThingEventRetention(thingEventRepository, maxAge, maxConsumed, batchSize, maxBatchesPerRun);
     }
 
     @Bean
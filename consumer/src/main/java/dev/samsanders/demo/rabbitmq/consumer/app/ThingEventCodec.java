@@ -0,0 +1,79 @@
+package dev.samsanders.demo.rabbitmq.consumer.app;
+
+import dev.samsanders.demo.rabbitmq.consumer.thing.ThingEvent;
+import org.springframework.amqp.support.converter.MessageConversionException;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Decodes the layout written by the publisher's ThingEventCodec, resolving the base URL's CRC-32 among the known ones.
+ */
+public class ThingEventCodec {
+
+    public static final String CONTENT_TYPE = "application/vnd.thing-event+binary";
+    static final byte VERSION = 2;
+    static final int LENGTH = 21;
+
+    private final Map<Integer, String> baseUrls = new HashMap<>();
+
+    public ThingEventCodec(List<String> baseUrls) {
+        for (String baseUrl : baseUrls) {
+            String collidingBaseUrl = this.baseUrls.putIfAbsent(baseUrlId(baseUrl), baseUrl);
+            if (collidingBaseUrl != null && !collidingBaseUrl.equals(baseUrl)) {
+                throw new IllegalArgumentException(String.format("Base URLs %s and %s have the same CRC-32",
+                        collidingBaseUrl, baseUrl));
+            }
+        }
+    }
+
+    public ThingEvent decode(byte[] body) {
+        if (body.length != LENGTH || body[0] != VERSION) {
+            throw new MessageConversionException(String.format("Can't decode ThingEvent: %d bytes, version %d",
+                    body.length, body.length == 0 ? -1 : body[0]));
+        }
+
+        long thingId = getLong(body, 1);
+        long epochNanos = getLong(body, 9);
+        int baseUrlId = getInt(body, 17);
+        String baseUrl = baseUrls.get(baseUrlId);
+        if (baseUrl == null) {
+            throw new MessageConversionException(String.format("Can't decode ThingEvent: unknown base URL %08x, " +
+                    "is the publisher's base URL in consumer.publisher.base-urls?", baseUrlId));
+        }
+
+        URI thingUri = URI.create(baseUrl + "/things/" + thingId);
+        Instant createdInstant = Instant.ofEpochSecond(Math.floorDiv(epochNanos, 1_000_000_000L),
+                Math.floorMod(epochNanos, 1_000_000_000L));
+
+        return new ThingEvent(thingUri, createdInstant);
+    }
+
+    private static int baseUrlId(String baseUrl) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(baseUrl.getBytes(StandardCharsets.UTF_8));
+        return (int) crc32.getValue();
+    }
+
+    private static long getLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static int getInt(byte[] bytes, int offset) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+}
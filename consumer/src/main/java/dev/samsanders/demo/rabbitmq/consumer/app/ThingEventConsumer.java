@@ -6,56 +6,214 @@ import dev.samsanders.demo.rabbitmq.consumer.thing.ThingEventRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.amqp.core.Message;
-import org.springframework.amqp.rabbit.listener.api.ChannelAwareMessageListener;
+import org.springframework.amqp.rabbit.batch.BatchingStrategy;
+import org.springframework.amqp.rabbit.batch.SimpleBatchingStrategy;
+import org.springframework.amqp.rabbit.listener.api.ChannelAwareBatchMessageListener;
+import org.springframework.amqp.rabbit.support.RabbitExceptionTranslator;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.core.ParameterizedTypeReference;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.io.IOException;
 import java.net.URI;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 
-public class ThingEventConsumer implements ChannelAwareMessageListener {
+/**
+ * Saves received ThingEvents, skipping any received before, for {@link ThingGetter} to react to.
+ */
+public class ThingEventConsumer implements ChannelAwareBatchMessageListener {
 
     private static final Logger logger = LoggerFactory.getLogger(ThingEventConsumer.class);
     private final Jackson2JsonMessageConverter messageConverter;
     private final ThingEventRepository thingEventRepository;
+    private final ThingEventCodec thingEventCodec;
+    private final ThingHighWaterMarks thingHighWaterMarks;
+    private final ThingEventReceipts thingEventReceipts;
+    private final TransactionTemplate transactionTemplate;
+    private final BatchingStrategy batchingStrategy = new SimpleBatchingStrategy(0, 0, 0L);
     private CountDownLatch countDownLatch;
 
-    public ThingEventConsumer(Jackson2JsonMessageConverter messageConverter, ThingEventRepository thingEventRepository) {
+    public ThingEventConsumer(Jackson2JsonMessageConverter messageConverter, ThingEventRepository thingEventRepository,
+                              ThingEventCodec thingEventCodec, ThingHighWaterMarks thingHighWaterMarks,
+                              ThingEventReceipts thingEventReceipts, PlatformTransactionManager transactionManager) {
         this.messageConverter = messageConverter;
         this.thingEventRepository = thingEventRepository;
+        this.thingEventCodec = thingEventCodec;
+        this.thingHighWaterMarks = thingHighWaterMarks;
+        this.thingEventReceipts = thingEventReceipts;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
     }
 
     @Override
-    @Transactional
-    public void onMessage(Message message, Channel channel) throws IOException {
+    public void onMessage(Message message, Channel channel) {
         logger.info(String.format("Received event: %s", message));
-        long deliveryTag = message.getMessageProperties().getDeliveryTag();
+        long deliveryTag = deliveryTag(message);
 
+        List<ThingEvent> thingEvents = new ArrayList<>();
         try {
-            ThingEventDto thingEventDto = (ThingEventDto) messageConverter.fromMessage(message,
-                    new ParameterizedTypeReference<ThingEventDto>() {
-                    });
-            ThingEvent thingEvent = new ThingEvent(thingEventDto.getThingUri(), thingEventDto.getCreatedInstant());
-            thingEventRepository.save(thingEvent);
+            thingEvents.addAll(saveMessage(message));
         } catch (Exception e) {
             logger.error("Exception caught: ", e);
-            channel.basicNack(deliveryTag, false, false);
+            nack(channel, deliveryTag);
+            return;
         }
 
-        channel.basicAck(deliveryTag, false);
+        ack(channel, deliveryTag, false);
+        countDown(thingEvents.size());
+    }
 
-        if (countDownLatch != null) {
-            countDownLatch.countDown();
+    /**
+     * The container doesn't de-batch, so each message is a whole delivery, unpacked here like in onMessage.
+     */
+    @Override
+    public void onMessageBatch(List<Message> messages, Channel channel) {
+        logger.info(String.format("Received batch of %d messages", messages.size()));
+
+        List<Message> decodedMessages = new ArrayList<>();
+        List<ThingEvent> thingEvents = new ArrayList<>();
+        for (Message message : messages) {
+            try {
+                thingEvents.addAll(toThingEvents(message));
+                decodedMessages.add(message);
+            } catch (Exception e) {
+                logger.error(String.format("Rejecting message %d, it couldn't be decoded: ", deliveryTag(message)), e);
+                nack(channel, deliveryTag(message));
+            }
+        }
+
+        if (decodedMessages.isEmpty()) {
+            return;
         }
+
+        try {
+            save(thingEvents);
+        } catch (RuntimeException e) {
+            logger.warn("Exception caught saving a batch, saving its messages one at a time: ", e);
+            thingEvents.clear();
+            saveIndividually(decodedMessages, thingEvents, channel);
+        }
+
+        decodedMessages.stream()
+                .mapToLong(ThingEventConsumer::deliveryTag)
+                .max()
+                .ifPresent(deliveryTag -> ack(channel, deliveryTag, true));
+        countDown(thingEvents.size());
     }
 
     public void setCountDownLatch(CountDownLatch countDownLatch) {
         this.countDownLatch = countDownLatch;
     }
 
+    /**
+     * Entities from the rolled back batch already have ids, so each message is decoded afresh.
+     */
+    private void saveIndividually(List<Message> messages, List<ThingEvent> savedThingEvents, Channel channel) {
+        Iterator<Message> iterator = messages.iterator();
+        while (iterator.hasNext()) {
+            Message message = iterator.next();
+            try {
+                savedThingEvents.addAll(saveMessage(message));
+            } catch (RuntimeException e) {
+                logger.error(String.format("Rejecting message %d, it couldn't be saved: ", deliveryTag(message)), e);
+                nack(channel, deliveryTag(message));
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Retries a unique-constraint race with another consumer, skipping the ThingEvents it saved meanwhile.
+     */
+    private List<ThingEvent> saveMessage(Message message) {
+        List<ThingEvent> thingEvents = toThingEvents(message);
+        try {
+            save(thingEvents);
+            return thingEvents;
+        } catch (DataIntegrityViolationException e) {
+            logger.warn(String.format("Message %d was partly saved meanwhile, retrying: %s", deliveryTag(message),
+                    e.getMessage()));
+            List<ThingEvent> retriedThingEvents = toThingEvents(message);
+            save(retriedThingEvents);
+            return retriedThingEvents;
+        }
+    }
+
+    /**
+     * Saves, in one transaction, the ThingEvents that haven't been received before.
+     */
+    private void save(List<ThingEvent> thingEvents) {
+        List<ThingEvent> unseenThingEvents = transactionTemplate.execute(status -> {
+            List<ThingEvent> unseen = thingEventReceipts.unseen(thingEvents);
+            thingEventRepository.saveAll(unseen);
+            return unseen;
+        });
+        thingEventReceipts.received(unseenThingEvents);
+    }
+
+    private List<ThingEvent> toThingEvents(Message message) {
+        List<ThingEvent> thingEvents = new ArrayList<>();
+        if (batchingStrategy.canDebatch(message.getMessageProperties())) {
+            batchingStrategy.deBatch(message, fragment -> thingEvents.add(toThingEvent(fragment)));
+        } else {
+            thingEvents.add(toThingEvent(message));
+        }
+        thingEvents.stream()
+                .filter(thingHighWaterMarks::isStale)
+                .forEach(thingEvent -> thingEvent.setConsumedInstant(Instant.now()));
+
+        return thingEvents;
+    }
+
+    private static long deliveryTag(Message message) {
+        return message.getMessageProperties().getDeliveryTag();
+    }
+
+    private static void ack(Channel channel, long deliveryTag, boolean multiple) {
+        try {
+            channel.basicAck(deliveryTag, multiple);
+        } catch (IOException e) {
+            throw RabbitExceptionTranslator.convertRabbitAccessException(e);
+        }
+    }
+
+    private static void nack(Channel channel, long deliveryTag) {
+        try {
+            channel.basicNack(deliveryTag, false, false);
+        } catch (IOException e) {
+            throw RabbitExceptionTranslator.convertRabbitAccessException(e);
+        }
+    }
+
+    private void countDown(int count) {
+        if (countDownLatch == null) {
+            return;
+        }
+
+        for (int i = 0; i < count; i++) {
+            countDownLatch.countDown();
+        }
+    }
+
+    /**
+     * Decodes the binary layout when the publisher sent it, and JSON otherwise.
+     */
+    private ThingEvent toThingEvent(Message message) {
+        if (ThingEventCodec.CONTENT_TYPE.equals(message.getMessageProperties().getContentType())) {
+            return thingEventCodec.decode(message.getBody());
+        }
+
+        ThingEventDto thingEventDto = (ThingEventDto) messageConverter.fromMessage(message,
+                new ParameterizedTypeReference<ThingEventDto>() {
+                });
+        return new ThingEvent(thingEventDto.getThingUri(), thingEventDto.getCreatedInstant());
+    }
+
     private static final class ThingEventDto {
 
         private URI thingUri;
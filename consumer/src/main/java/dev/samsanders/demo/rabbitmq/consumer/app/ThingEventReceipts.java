@@ -0,0 +1,77 @@
+package dev.samsanders.demo.rabbitmq.consumer.app;
+
+import dev.samsanders.demo.rabbitmq.consumer.thing.ThingEvent;
+import dev.samsanders.demo.rabbitmq.consumer.thing.ThingEventRepository;
+
+import java.net.URI;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Filters out ThingEvents received before, by thingUri and createdInstant, checking recent ones in memory first.
+ */
+public class ThingEventReceipts {
+
+    private final ThingEventRepository thingEventRepository;
+    private final Map<String, Boolean> recentKeys;
+
+    public ThingEventReceipts(ThingEventRepository thingEventRepository, int capacity) {
+        this.thingEventRepository = thingEventRepository;
+        this.recentKeys = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the given ThingEvents less any that were received before, or that repeat an earlier one in the list.
+     */
+    public List<ThingEvent> unseen(List<ThingEvent> thingEvents) {
+        Set<String> keys = new HashSet<>();
+        List<ThingEvent> unseenThingEvents;
+        synchronized (recentKeys) {
+            unseenThingEvents = thingEvents.stream()
+                    .filter(thingEvent -> keys.add(key(thingEvent)) && !recentKeys.containsKey(key(thingEvent)))
+                    .collect(Collectors.toList());
+        }
+
+        if (unseenThingEvents.isEmpty()) {
+            return unseenThingEvents;
+        }
+
+        Set<URI> thingUris = unseenThingEvents.stream().map(ThingEvent::getThingUri).collect(Collectors.toSet());
+        Set<Instant> createdInstants = unseenThingEvents.stream()
+                .map(ThingEvent::getCreatedInstant)
+                .collect(Collectors.toSet());
+        Set<String> savedKeys = thingEventRepository.findAllByThingUriInAndCreatedInstantIn(thingUris, createdInstants)
+                .stream()
+                .map(ThingEventReceipts::key)
+                .collect(Collectors.toSet());
+
+        return unseenThingEvents.stream()
+                .filter(thingEvent -> !savedKeys.contains(key(thingEvent)))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Remembers ThingEvents once the transaction that saved them has committed.
+     */
+    public void received(Collection<ThingEvent> thingEvents) {
+        synchronized (recentKeys) {
+            thingEvents.forEach(thingEvent -> recentKeys.put(key(thingEvent), Boolean.TRUE));
+        }
+    }
+
+    private static String key(ThingEvent thingEvent) {
+        return thingEvent.getThingUri() + " " + thingEvent.getCreatedInstant();
+    }
+
+}
@@ -0,0 +1,70 @@
+package dev.samsanders.demo.rabbitmq.consumer.app;
+
+import dev.samsanders.demo.rabbitmq.consumer.thing.ThingEventRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+public class ThingEventRetention {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThingEventRetention.class);
+
+    private final ThingEventRepository thingEventRepository;
+    private final Duration maxAge;
+    private final long maxConsumed;
+    private final int batchSize;
+    private final int maxBatchesPerRun;
+
+    public ThingEventRetention(ThingEventRepository thingEventRepository, Duration maxAge, long maxConsumed,
+                               int batchSize, int maxBatchesPerRun) {
+        this.thingEventRepository = thingEventRepository;
+        this.maxAge = maxAge;
+        this.maxConsumed = maxConsumed;
+        this.batchSize = batchSize;
+        this.maxBatchesPerRun = maxBatchesPerRun;
+    }
+
+    @Scheduled(fixedDelayString = "${consumer.retention.interval-ms:60000}")
+    public void purgeConsumedThingEvents() {
+        Instant consumedBefore = Instant.now().minus(maxAge);
+        int batches = 0;
+        int purged = 0;
+
+        while (batches < maxBatchesPerRun) {
+            List<Long> ids = thingEventRepository.findIdsConsumedBefore(consumedBefore, PageRequest.of(0, batchSize));
+            if (ids.isEmpty()) {
+                break;
+            }
+
+            purged += thingEventRepository.purge(ids);
+            batches++;
+            if (ids.size() < batchSize) {
+                break;
+            }
+        }
+
+        long excess = thingEventRepository.countByConsumedInstantIsNotNull() - maxConsumed;
+        while (excess > 0 && batches < maxBatchesPerRun) {
+            List<Long> ids = thingEventRepository
+                    .findConsumedIds(PageRequest.of(0, (int) Math.min(batchSize, excess)));
+            if (ids.isEmpty()) {
+                break;
+            }
+
+            int purgedBatch = thingEventRepository.purge(ids);
+            purged += purgedBatch;
+            excess -= purgedBatch;
+            batches++;
+        }
+
+        if (purged > 0) {
+            logger.info(String.format("Purged %d consumed ThingEvents in %d batches", purged, batches));
+        }
+    }
+
+}
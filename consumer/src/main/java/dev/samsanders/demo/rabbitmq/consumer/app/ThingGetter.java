@@ -6,15 +6,31 @@ import dev.samsanders.demo.rabbitmq.consumer.thing.ThingEventRepository;
 import dev.samsanders.demo.rabbitmq.consumer.thing.ThingRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.MediaType;
 import org.springframework.http.RequestEntity;
 import org.springframework.http.ResponseEntity;
 import org.springframework.scheduling.annotation.Scheduled;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.client.RestTemplate;
 
+import java.net.URI;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 
+/**
+ * Fetches the Things that unconsumed ThingEvents refer to, leasing each page so replicas can share the backlog.
+ */
 public class ThingGetter {
 
     private static final Logger logger = LoggerFactory.getLogger(ThingGetter.class);
@@ -22,40 +38,134 @@ public class ThingGetter {
     private final ThingEventRepository thingEventRepository;
     private final RestTemplate restTemplate;
     private final ThingRepository thingRepository;
+    private final ThingHighWaterMarks thingHighWaterMarks;
+    private final TransactionTemplate transactionTemplate;
+    private final ExecutorService executorService;
+    private final String nodeId;
+    private final Duration leaseDuration;
+    private final int pageSize;
 
 
     public ThingGetter(ThingEventRepository thingEventRepository, RestTemplate restTemplate,
-                       ThingRepository thingRepository) {
+                       ThingRepository thingRepository, ThingHighWaterMarks thingHighWaterMarks,
+                       PlatformTransactionManager transactionManager, int parallelism, String nodeId,
+                       Duration leaseDuration, int pageSize) {
         this.thingEventRepository = thingEventRepository;
         this.restTemplate = restTemplate;
         this.thingRepository = thingRepository;
+        this.thingHighWaterMarks = thingHighWaterMarks;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.executorService = Executors.newFixedThreadPool(parallelism);
+        this.nodeId = nodeId;
+        this.leaseDuration = leaseDuration;
+        this.pageSize = pageSize;
     }
 
     @Scheduled(fixedRate = 2000L)
-    @Transactional
     public void getAllUnconsumedThings() {
         logger.info("Getting all unconsumed ThingEvents");
 
-        Iterable<ThingEvent> thingEvents = thingEventRepository
-                .findAllByConsumedInstantIsNullOrderByCreatedInstant();
+        ThingEvent cursor = null;
+        boolean last = false;
+        while (!last && !Thread.currentThread().isInterrupted()) {
+            PageRequest page = PageRequest.of(0, pageSize);
+            List<ThingEvent> claimableEvents = cursor == null
+                    ? thingEventRepository.findClaimable(nodeId, Instant.now(), page)
+                    : thingEventRepository.findClaimableAfter(nodeId, Instant.now(), cursor.getCreatedInstant(),
+                    cursor.getId(), page);
+            if (claimableEvents.isEmpty()) {
+                return;
+            }
+
+            getThings(claim(claimableEvents));
+            cursor = claimableEvents.get(claimableEvents.size() - 1);
+            last = claimableEvents.size() < pageSize;
+        }
+    }
+
+    public void shutdown() {
+        executorService.shutdownNow();
+    }
+
+    private List<ThingEvent> claim(List<ThingEvent> claimableEvents) {
+        List<Long> ids = claimableEvents.stream().map(ThingEvent::getId).collect(Collectors.toList());
+        if (lease(ids) == 0) {
+            return Collections.emptyList();
+        }
+
+        return thingEventRepository.findByIdInAndLeaseOwnerAndConsumedInstantIsNullOrderByCreatedInstantAscIdAsc(ids,
+                nodeId);
+    }
+
+    private int lease(List<Long> ids) {
+        Instant now = Instant.now();
+        return thingEventRepository.claim(ids, nodeId, now, now.plus(leaseDuration));
+    }
+
+    private void getThings(List<ThingEvent> claimedEvents) {
+        Map<URI, List<ThingEvent>> thingEventsByThingUri = claimedEvents.stream()
+                .collect(Collectors.groupingBy(ThingEvent::getThingUri, LinkedHashMap::new, Collectors.toList()));
+
+        List<Callable<Void>> tasks = thingEventsByThingUri.entrySet().stream()
+                .map(thingEventsForThing -> (Callable<Void>) () -> {
+                    getThings(thingEventsForThing.getKey(), thingEventsForThing.getValue());
+                    return null;
+                })
+                .collect(Collectors.toList());
+
+        try {
+            executorService.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Fetches the Thing once for all its ThingEvents, and only saves it if that moves its high-water mark.
+     */
+    private void getThings(URI thingUri, List<ThingEvent> thingEvents) {
+        try {
+            List<Long> thingEventIds = thingEvents.stream().map(ThingEvent::getId).collect(Collectors.toList());
+            if (lease(thingEventIds) < thingEventIds.size()) {
+                logger.info(String.format("Lost the lease on ThingEvents for Thing %s, leaving them", thingUri));
+                return;
+            }
+
+            if (thingEvents.stream().allMatch(thingHighWaterMarks::isStale)) {
+                logger.info(String.format("Thing %s was fetched since its %d ThingEvents", thingUri,
+                        thingEvents.size()));
+                thingEventRepository.markConsumed(thingEventIds, Instant.now());
+                return;
+            }
 
-        thingEvents.forEach(thingEvent -> {
             RequestEntity<Void> thingRequest =
                     RequestEntity
-                            .get(thingEvent.getThingUri())
+                            .get(thingUri)
                             .accept(MediaType.APPLICATION_JSON)
                             .build();
 
-            logger.info(String.format("Getting Thing %s", thingEvent.getThingUri()));
+            logger.info(String.format("Getting Thing %s for %d ThingEvents", thingUri, thingEvents.size()));
 
             ResponseEntity<Thing> thingResponseEntity = restTemplate.exchange(thingRequest, Thing.class);
             Thing thing = thingResponseEntity.getBody();
 
             logger.info(String.format("Got Thing: %s", thing));
 
-            thingRepository.save(thing);
-            thingEvent.setConsumedInstant(Instant.now());
-            thingEventRepository.save(thingEvent);
-        });
+            Instant fetchedAsOfInstant = thingEvents.stream()
+                    .map(ThingEvent::getCreatedInstant)
+                    .max(Comparator.naturalOrder())
+                    .orElseThrow();
+            transactionTemplate.executeWithoutResult(status -> {
+                if (thingHighWaterMarks.advance(thingUri, fetchedAsOfInstant)) {
+                    thingRepository.save(thing);
+                } else {
+                    logger.info(String.format("Thing %s was saved as of a newer fetch, not saving it", thingUri));
+                }
+                thingEventRepository.markConsumed(thingEventIds, Instant.now());
+            });
+            thingHighWaterMarks.advanced(thingUri, fetchedAsOfInstant);
+        } catch (RuntimeException e) {
+            logger.error(String.format("Exception caught getting Thing %s, retrying next cycle: ", thingUri), e);
+        }
     }
 }
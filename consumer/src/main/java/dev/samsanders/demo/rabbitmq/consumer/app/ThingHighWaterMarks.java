@@ -0,0 +1,75 @@
+package dev.samsanders.demo.rabbitmq.consumer.app;
+
+import dev.samsanders.demo.rabbitmq.consumer.thing.ThingEvent;
+import dev.samsanders.demo.rabbitmq.consumer.thing.ThingHighWaterMark;
+import dev.samsanders.demo.rabbitmq.consumer.thing.ThingHighWaterMarkRepository;
+
+import java.net.URI;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Tells whether a ThingEvent's Thing has been fetched since, caching the most recently used marks in memory.
+ */
+public class ThingHighWaterMarks {
+
+    private final ThingHighWaterMarkRepository thingHighWaterMarkRepository;
+    private final Map<String, Optional<Instant>> fetchedAsOfInstants;
+
+    public ThingHighWaterMarks(ThingHighWaterMarkRepository thingHighWaterMarkRepository, int capacity) {
+        this.thingHighWaterMarkRepository = thingHighWaterMarkRepository;
+        this.fetchedAsOfInstants = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Optional<Instant>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public boolean isStale(ThingEvent thingEvent) {
+        return fetchedAsOf(thingEvent.getThingUri())
+                .map(fetchedAsOfInstant -> !thingEvent.getCreatedInstant().isAfter(fetchedAsOfInstant))
+                .orElse(false);
+    }
+
+    /**
+     * Returns false when a fetch as of the same or a newer ThingEvent has already been saved.
+     */
+    public boolean advance(URI thingUri, Instant fetchedAsOfInstant) {
+        if (thingHighWaterMarkRepository.advance(thingUri.toString(), fetchedAsOfInstant) > 0) {
+            return true;
+        }
+        if (thingHighWaterMarkRepository.existsById(thingUri.toString())) {
+            return false;
+        }
+
+        thingHighWaterMarkRepository.save(new ThingHighWaterMark(thingUri.toString(), fetchedAsOfInstant));
+        return true;
+    }
+
+    public void advanced(URI thingUri, Instant fetchedAsOfInstant) {
+        synchronized (fetchedAsOfInstants) {
+            fetchedAsOfInstants.merge(thingUri.toString(), Optional.of(fetchedAsOfInstant), (current, advanced) ->
+                    current.isPresent() && current.get().isAfter(advanced.get()) ? current : advanced);
+        }
+    }
+
+    private Optional<Instant> fetchedAsOf(URI thingUri) {
+        String key = thingUri.toString();
+        synchronized (fetchedAsOfInstants) {
+            Optional<Instant> fetchedAsOfInstant = fetchedAsOfInstants.get(key);
+            if (fetchedAsOfInstant != null) {
+                return fetchedAsOfInstant;
+            }
+        }
+
+        Optional<Instant> fetchedAsOfInstant =
+                thingHighWaterMarkRepository.findById(key).map(ThingHighWaterMark::getFetchedAsOfInstant);
+        synchronized (fetchedAsOfInstants) {
+            return fetchedAsOfInstants.merge(key, fetchedAsOfInstant, (current, read) -> current);
+        }
+    }
+
+}
@@ -4,19 +4,32 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
 import java.net.URI;
 import java.time.Instant;
 import java.util.Objects;
 
+/**
+ * The unique constraint makes receipt idempotent: a redelivered ThingEvent can't be saved twice.
+ */
 @Entity
+@Table(indexes = @Index(name = "thing_event_pending", columnList = "consumedInstant, createdInstant, id"),
+        uniqueConstraints = @UniqueConstraint(name = "thing_event_receipt",
+                columnNames = {"thingUri", "createdInstant"}))
 public class ThingEvent {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "thing_event_id")
+    @SequenceGenerator(name = "thing_event_id", sequenceName = "thing_event_id_seq", allocationSize = 500)
     private long id;
     private URI thingUri;
     private Instant createdInstant;
     private Instant consumedInstant;
+    private String leaseOwner;
+    private Instant leaseExpiryInstant;
 
     public ThingEvent() {
     }
@@ -58,12 +71,14 @@ public class ThingEvent {
         return id == that.id &&
                 Objects.equals(thingUri, that.thingUri) &&
                 Objects.equals(createdInstant, that.createdInstant) &&
-                Objects.equals(consumedInstant, that.consumedInstant);
+                Objects.equals(consumedInstant, that.consumedInstant) &&
+                Objects.equals(leaseOwner, that.leaseOwner) &&
+                Objects.equals(leaseExpiryInstant, that.leaseExpiryInstant);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, thingUri, createdInstant, consumedInstant);
+        return Objects.hash(id, thingUri, createdInstant, consumedInstant, leaseOwner, leaseExpiryInstant);
     }
 
     @Override
@@ -73,6 +88,8 @@ public class ThingEvent {
                 ", thingUri=" + thingUri +
                 ", createdInstant=" + createdInstant +
                 ", consumedInstant=" + consumedInstant +
+                ", leaseOwner='" + leaseOwner + '\'' +
+                ", leaseExpiryInstant=" + leaseExpiryInstant +
                 '}';
     }
 }
@@ -1,9 +1,69 @@
 package dev.samsanders.demo.rabbitmq.consumer.thing;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.net.URI;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
 
 public interface ThingEventRepository extends CrudRepository<ThingEvent, Long> {
 
-    Iterable<ThingEvent> findAllByConsumedInstantIsNullOrderByCreatedInstant();
+    @Query("select e from ThingEvent e where e.consumedInstant is null " +
+            "and (e.leaseExpiryInstant is null or e.leaseExpiryInstant < :now or e.leaseOwner = :owner) " +
+            "order by e.createdInstant, e.id")
+    List<ThingEvent> findClaimable(@Param("owner") String owner,
+                                   @Param("now") Instant now,
+                                   Pageable pageable);
+
+    @Query("select e from ThingEvent e where e.consumedInstant is null " +
+            "and (e.leaseExpiryInstant is null or e.leaseExpiryInstant < :now or e.leaseOwner = :owner) " +
+            "and (e.createdInstant > :createdInstant or (e.createdInstant = :createdInstant and e.id > :id)) " +
+            "order by e.createdInstant, e.id")
+    List<ThingEvent> findClaimableAfter(@Param("owner") String owner,
+                                        @Param("now") Instant now,
+                                        @Param("createdInstant") Instant createdInstant,
+                                        @Param("id") long id,
+                                        Pageable pageable);
+
+    @Modifying
+    @Transactional
+    @Query("update ThingEvent e set e.leaseOwner = :owner, e.leaseExpiryInstant = :leaseExpiryInstant " +
+            "where e.id in :ids and e.consumedInstant is null " +
+            "and (e.leaseExpiryInstant is null or e.leaseExpiryInstant < :now or e.leaseOwner = :owner)")
+    int claim(@Param("ids") Collection<Long> ids,
+              @Param("owner") String owner,
+              @Param("now") Instant now,
+              @Param("leaseExpiryInstant") Instant leaseExpiryInstant);
+
+    List<ThingEvent> findByIdInAndLeaseOwnerAndConsumedInstantIsNullOrderByCreatedInstantAscIdAsc(
+            Collection<Long> ids, String leaseOwner);
+
+    List<ThingEvent> findAllByThingUriInAndCreatedInstantIn(Collection<URI> thingUris,
+                                                            Collection<Instant> createdInstants);
+
+    @Modifying
+    @Transactional
+    @Query("update ThingEvent e set e.consumedInstant = :consumedInstant where e.id in :ids")
+    int markConsumed(@Param("ids") Collection<Long> ids, @Param("consumedInstant") Instant consumedInstant);
+
+    long countByConsumedInstantIsNotNull();
+
+    @Query("select e.id from ThingEvent e where e.consumedInstant < :consumedBefore " +
+            "order by e.consumedInstant, e.id")
+    List<Long> findIdsConsumedBefore(@Param("consumedBefore") Instant consumedBefore, Pageable pageable);
+
+    @Query("select e.id from ThingEvent e where e.consumedInstant is not null order by e.consumedInstant, e.id")
+    List<Long> findConsumedIds(Pageable pageable);
+
+    @Modifying
+    @Transactional
+    @Query("delete from ThingEvent e where e.id in :ids")
+    int purge(@Param("ids") Collection<Long> ids);
 
 }
@@ -0,0 +1,63 @@
+package dev.samsanders.demo.rabbitmq.consumer.thing;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import java.time.Instant;
+import java.util.Objects;
+
+/**
+ * The createdInstant of the newest ThingEvent covered by a fetch of the Thing.
+ */
+@Entity
+public class ThingHighWaterMark {
+
+    @Id
+    private String thingUri;
+    private Instant fetchedAsOfInstant;
+
+    public ThingHighWaterMark() {
+    }
+
+    public ThingHighWaterMark(String thingUri, Instant fetchedAsOfInstant) {
+        this.thingUri = thingUri;
+        this.fetchedAsOfInstant = fetchedAsOfInstant;
+    }
+
+    public String getThingUri() {
+        return thingUri;
+    }
+
+    public Instant getFetchedAsOfInstant() {
+        return fetchedAsOfInstant;
+    }
+
+    public void setFetchedAsOfInstant(Instant fetchedAsOfInstant) {
+        this.fetchedAsOfInstant = fetchedAsOfInstant;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ThingHighWaterMark)) {
+            return false;
+        }
+        ThingHighWaterMark that = (ThingHighWaterMark) o;
+        return Objects.equals(thingUri, that.thingUri) &&
+                Objects.equals(fetchedAsOfInstant, that.fetchedAsOfInstant);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(thingUri, fetchedAsOfInstant);
+    }
+
+    @Override
+    public String toString() {
+        return "ThingHighWaterMark{" +
+                "thingUri='" + thingUri + '\'' +
+                ", fetchedAsOfInstant=" + fetchedAsOfInstant +
+                '}';
+    }
+}
@@ -0,0 +1,19 @@
+package dev.samsanders.demo.rabbitmq.consumer.thing;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+
+public interface ThingHighWaterMarkRepository extends CrudRepository<ThingHighWaterMark, String> {
+
+    @Modifying
+    @Transactional
+    @Query("update ThingHighWaterMark m set m.fetchedAsOfInstant = :fetchedAsOfInstant " +
+            "where m.thingUri = :thingUri and m.fetchedAsOfInstant < :fetchedAsOfInstant")
+    int advance(@Param("thingUri") String thingUri, @Param("fetchedAsOfInstant") Instant fetchedAsOfInstant);
+
+}
@@ -0,0 +1,7 @@
+package dev.samsanders.demo.rabbitmq.consumer;
+
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = "consumer.batch.enabled=true")
+class BatchConsumerApplicationTests extends ConsumerApplicationTests {
+}
@@ -0,0 +1,147 @@
+package dev.samsanders.demo.rabbitmq.consumer;
+
+import dev.samsanders.demo.rabbitmq.consumer.app.ThingEventConsumer;
+import dev.samsanders.demo.rabbitmq.consumer.app.ThingGetter;
+import dev.samsanders.demo.rabbitmq.consumer.thing.ThingEvent;
+import dev.samsanders.demo.rabbitmq.consumer.thing.ThingEventRepository;
+import dev.samsanders.demo.rabbitmq.publisher.app.ThingEventCodec;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.FanoutExchange;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@ActiveProfiles("embedded-broker")
+@DirtiesContext
+class ConsumerApplicationTests {
+
+    static final String BASE_URL = "https://samsanders.dev";
+    static final String TOO_LONG_BASE_URL = BASE_URL + "/" + "a".repeat(300);
+
+    @MockBean
+    ThingGetter thingGetter;
+
+    @Autowired
+    RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    AmqpAdmin amqpAdmin;
+
+    @Autowired
+    FanoutExchange exchange;
+
+    @Autowired
+    Queue queue;
+
+    @Autowired
+    MessageListenerContainer messageListenerContainer;
+
+    @Autowired
+    ThingEventConsumer thingEventConsumer;
+
+    @Autowired
+    ThingEventRepository thingEventRepository;
+
+    @DynamicPropertySource
+    static void baseUrls(DynamicPropertyRegistry registry) {
+        registry.add("consumer.publisher.base-urls", () -> BASE_URL + "," + TOO_LONG_BASE_URL);
+    }
+
+    @Test
+    void savesAndAcknowledgesMessages() throws Exception {
+        consume(3, message(BASE_URL, 1L), message(BASE_URL, 2L), message(BASE_URL, 3L));
+
+        assertTrue(savedThingUris().containsAll(List.of(thingUri(1L), thingUri(2L), thingUri(3L))));
+        assertEquals(0, unacknowledgedMessages());
+    }
+
+    @Test
+    void rejectsOnlyTheMessagesThatCantBeSaved() throws Exception {
+        // A ThingEvent whose thingUri is too long for its column can't be saved
+        consume(2, message(BASE_URL, 4L), message(TOO_LONG_BASE_URL, 5L), message(BASE_URL, 6L));
+
+        Set<URI> savedThingUris = savedThingUris();
+        assertTrue(savedThingUris.containsAll(List.of(thingUri(4L), thingUri(6L))));
+        assertFalse(savedThingUris.contains(URI.create(TOO_LONG_BASE_URL + "/things/5")));
+        assertEquals(0, unacknowledgedMessages());
+    }
+
+    @Test
+    void savesARedeliveredThingEventOnce() throws Exception {
+        Message message = message(BASE_URL, 7L);
+
+        consume(2, message, message);
+
+        assertEquals(1, countSaved(thingUri(7L)));
+        assertEquals(0, unacknowledgedMessages());
+    }
+
+    /**
+     * Sends the messages, and waits until {@code expectedThingEvents} ThingEvents have been saved and acknowledged.
+     */
+    void consume(int expectedThingEvents, Message... messages) throws InterruptedException {
+        CountDownLatch countDownLatch = new CountDownLatch(expectedThingEvents);
+        thingEventConsumer.setCountDownLatch(countDownLatch);
+
+        for (Message message : messages) {
+            rabbitTemplate.send(exchange.getName(), "", message);
+        }
+
+        countDownLatch.await(5000, TimeUnit.MILLISECONDS);
+        assertEquals(0, countDownLatch.getCount());
+    }
+
+    /**
+     * Stopping the container returns any messages it hasn't acknowledged or rejected to the queue.
+     */
+    int unacknowledgedMessages() {
+        messageListenerContainer.stop();
+        try {
+            return amqpAdmin.getQueueInfo(queue.getName()).getMessageCount();
+        } finally {
+            messageListenerContainer.start();
+        }
+    }
+
+    Set<URI> savedThingUris() {
+        return StreamSupport.stream(thingEventRepository.findAll().spliterator(), false)
+                .map(ThingEvent::getThingUri)
+                .collect(Collectors.toSet());
+    }
+
+    long countSaved(URI thingUri) {
+        return StreamSupport.stream(thingEventRepository.findAll().spliterator(), false)
+                .filter(thingEvent -> thingEvent.getThingUri().equals(thingUri))
+                .count();
+    }
+
+    static Message message(String baseUrl, long thingId) {
+        return new ThingEventCodec(baseUrl)
+                .toMessage(new dev.samsanders.demo.rabbitmq.publisher.thing.ThingEvent(thingId));
+    }
+
+    static URI thingUri(long thingId) {
+        return URI.create(BASE_URL + "/things/" + thingId);
+    }
+
+}
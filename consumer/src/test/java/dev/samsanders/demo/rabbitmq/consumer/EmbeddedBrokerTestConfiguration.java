@@ -0,0 +1,20 @@
+package dev.samsanders.demo.rabbitmq.consumer;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+@Configuration
+@Profile("embedded-broker")
+public class EmbeddedBrokerTestConfiguration {
+
+    @Value("${test.broker.config.file-location}")
+    String brokerConfigFileLocation;
+
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    public EmbeddedAmqpBroker embeddedAmqpBroker() {
+        return new EmbeddedAmqpBroker(brokerConfigFileLocation);
+    }
+
+}
@@ -0,0 +1,74 @@
+package dev.samsanders.demo.rabbitmq.consumer.app;
+
+import dev.samsanders.demo.rabbitmq.consumer.thing.ThingEvent;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.support.converter.MessageConversionException;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ThingEventCodecTests {
+
+    private static final String BASE_URL = "https://samsanders.dev";
+
+    private final dev.samsanders.demo.rabbitmq.publisher.app.ThingEventCodec publisherCodec =
+            new dev.samsanders.demo.rabbitmq.publisher.app.ThingEventCodec(BASE_URL);
+    private final ThingEventCodec consumerCodec = new ThingEventCodec(List.of(BASE_URL));
+
+    @Test
+    void decodesWhatThePublisherEncodes() {
+        dev.samsanders.demo.rabbitmq.publisher.thing.ThingEvent publishedThingEvent =
+                new dev.samsanders.demo.rabbitmq.publisher.thing.ThingEvent(42L);
+
+        Message message = publisherCodec.toMessage(publishedThingEvent);
+        ThingEvent thingEvent = consumerCodec.decode(message.getBody());
+
+        assertEquals(ThingEventCodec.CONTENT_TYPE, message.getMessageProperties().getContentType());
+        assertEquals(URI.create(BASE_URL + "/things/42"), thingEvent.getThingUri());
+        assertEquals(publishedThingEvent.getCreatedInstant(), thingEvent.getCreatedInstant());
+    }
+
+    @Test
+    void sendsTheBaseUrlAsItsCrc32() {
+        byte[] body = encode();
+
+        // Expect the frame has a fixed length however long the base URL is
+        assertEquals(21, body.length);
+        assertEquals(body.length, new dev.samsanders.demo.rabbitmq.publisher.app.ThingEventCodec(BASE_URL + "/longer")
+                .toMessage(new dev.samsanders.demo.rabbitmq.publisher.thing.ThingEvent(42L)).getBody().length);
+    }
+
+    @Test
+    void rejectsUnknownBaseUrl() {
+        ThingEventCodec otherConsumerCodec = new ThingEventCodec(List.of("https://example.com"));
+
+        assertThrows(MessageConversionException.class, () -> otherConsumerCodec.decode(encode()));
+    }
+
+    @Test
+    void rejectsUnknownVersion() {
+        byte[] body = encode();
+        body[0] = 2;
+
+        assertThrows(MessageConversionException.class, () -> consumerCodec.decode(body));
+    }
+
+    @Test
+    void rejectsTruncatedFrame() {
+        byte[] body = encode();
+
+        assertThrows(MessageConversionException.class,
+                () -> consumerCodec.decode(Arrays.copyOf(body, body.length - 1)));
+        assertThrows(MessageConversionException.class, () -> consumerCodec.decode(Arrays.copyOf(body, 10)));
+        assertThrows(MessageConversionException.class, () -> consumerCodec.decode(new byte[0]));
+    }
+
+    private byte[] encode() {
+        return publisherCodec.toMessage(new dev.samsanders.demo.rabbitmq.publisher.thing.ThingEvent(42L)).getBody();
+    }
+
+}
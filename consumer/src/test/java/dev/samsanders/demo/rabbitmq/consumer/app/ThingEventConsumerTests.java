@@ -0,0 +1,231 @@
+package dev.samsanders.demo.rabbitmq.consumer.app;
+
+import com.rabbitmq.client.Channel;
+import dev.samsanders.demo.rabbitmq.consumer.thing.ThingEvent;
+import dev.samsanders.demo.rabbitmq.consumer.thing.ThingEventRepository;
+import dev.samsanders.demo.rabbitmq.publisher.app.InFlightWindow;
+import dev.samsanders.demo.rabbitmq.publisher.app.ThingEventBatcher;
+import dev.samsanders.demo.rabbitmq.publisher.app.ThingEventConfirmTracker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ThingEventConsumerTests {
+
+    private static final String BASE_URL = "https://samsanders.dev";
+
+    private ThingEventRepository thingEventRepository;
+    private ThingEventConsumer thingEventConsumer;
+    private Channel channel;
+
+    @BeforeEach
+    void beforeEach() {
+        thingEventRepository = mock(ThingEventRepository.class);
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+
+        thingEventConsumer = new ThingEventConsumer(new Jackson2JsonMessageConverter(), thingEventRepository,
+                new ThingEventCodec(List.of(BASE_URL)), mock(ThingHighWaterMarks.class),
+                new ThingEventReceipts(thingEventRepository, 100), transactionManager);
+        channel = mock(Channel.class);
+    }
+
+    @Test
+    void savesEveryThingEventInAPublishedBatch() throws Exception {
+        Message batch = publishBatch(1L, 2L, 3L);
+        batch.getMessageProperties().setDeliveryTag(7L);
+
+        thingEventConsumer.onMessage(batch, channel);
+
+        // Expect the batch was unpacked into one ThingEvent per Thing, saved together, and acknowledged once
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<ThingEvent>> savedThingEvents = ArgumentCaptor.forClass(List.class);
+        verify(thingEventRepository).saveAll(savedThingEvents.capture());
+        assertEquals(List.of(thingUri(1L), thingUri(2L), thingUri(3L)), savedThingEvents.getValue().stream()
+                .map(ThingEvent::getThingUri)
+                .collect(Collectors.toList()));
+        verify(channel).basicAck(7L, false);
+        verify(channel, never()).basicNack(anyLong(), anyBoolean(), anyBoolean());
+    }
+
+    @Test
+    void acknowledgesABatchOfMessagesOnce() throws Exception {
+        Message batch = publishBatch(1L, 2L);
+        batch.getMessageProperties().setDeliveryTag(1L);
+        Message undecodable = new Message(new byte[]{9}, publishedMessage(3L, 3L).getMessageProperties());
+
+        thingEventConsumer.onMessageBatch(List.of(batch, publishedMessage(2L, 4L), undecodable), channel);
+
+        // Expect the publisher's batch was unpacked and saved with message 2, and both acknowledged with one ack
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<ThingEvent>> savedThingEvents = ArgumentCaptor.forClass(List.class);
+        verify(thingEventRepository).saveAll(savedThingEvents.capture());
+        assertEquals(3, savedThingEvents.getValue().size());
+        verify(channel).basicNack(3L, false, false);
+        verify(channel).basicAck(2L, true);
+    }
+
+    @Test
+    void savesTheMessagesOfAFailedBatchOneAtATime() throws Exception {
+        when(thingEventRepository.saveAll(any())).thenAnswer(invocation -> {
+            List<ThingEvent> thingEvents = invocation.getArgument(0);
+            if (thingEvents.stream().anyMatch(thingEvent -> thingEvent.getThingUri().equals(thingUri(2L)))) {
+                throw new DataIntegrityViolationException("Value too long");
+            }
+            return thingEvents;
+        });
+
+        thingEventConsumer.onMessageBatch(List.of(publishedMessage(1L, 1L), publishedMessage(2L, 2L),
+                publishedMessage(3L, 3L)), channel);
+
+        // Expect only the message that couldn't be saved, even when retried, was rejected
+        verify(thingEventRepository, times(5)).saveAll(any());
+        verify(channel).basicNack(2L, false, false);
+        verify(channel).basicAck(3L, true);
+        verify(channel, never()).basicAck(anyLong(), eq(false));
+    }
+
+    @Test
+    void retriesADeliveryThatRacedAnotherConsumer() throws Exception {
+        List<dev.samsanders.demo.rabbitmq.publisher.thing.ThingEvent> thingEvents =
+                publisherThingEvents(1L, 2L, 3L, 4L);
+        Message batch = publishBatch(thingEvents.subList(0, 3));
+        batch.getMessageProperties().setDeliveryTag(7L);
+        Channel otherChannel = mock(Channel.class);
+        Message otherBatch = publishBatch(thingEvents.subList(1, 4));
+        otherBatch.getMessageProperties().setDeliveryTag(7L);
+        List<ThingEvent> savedThingEvents = raceOnFirstSave(otherBatch, otherChannel);
+
+        thingEventConsumer.onMessage(batch, channel);
+
+        // Expect the other consumer saved Things 2 to 4 first, and this one saved only Thing 1 when it retried
+        assertEquals(List.of(thingUri(2L), thingUri(3L), thingUri(4L), thingUri(1L)), savedThingEvents.stream()
+                .map(ThingEvent::getThingUri)
+                .collect(Collectors.toList()));
+        verify(channel).basicAck(7L, false);
+        verify(channel, never()).basicNack(anyLong(), anyBoolean(), anyBoolean());
+        verify(otherChannel).basicAck(7L, false);
+    }
+
+    @Test
+    void retriesAMessageOfABatchThatRacedAnotherConsumer() throws Exception {
+        List<dev.samsanders.demo.rabbitmq.publisher.thing.ThingEvent> thingEvents = publisherThingEvents(1L, 2L, 3L);
+        Message batch = publishBatch(thingEvents.subList(0, 2));
+        batch.getMessageProperties().setDeliveryTag(1L);
+        Message otherBatch = publishBatch(thingEvents.subList(1, 3));
+        otherBatch.getMessageProperties().setDeliveryTag(1L);
+        List<ThingEvent> savedThingEvents = raceOnFirstSave(otherBatch, mock(Channel.class));
+
+        thingEventConsumer.onMessageBatch(List.of(batch, publishedMessage(2L, 4L)), channel);
+
+        // Expect the batch was saved one message at a time, skipping Thing 2, which the other consumer saved
+        assertEquals(4, savedThingEvents.size());
+        verify(channel).basicAck(2L, true);
+        verify(channel, never()).basicNack(anyLong(), anyBoolean(), anyBoolean());
+    }
+
+    /**
+     * Stands in for the thing_event table, and has another consumer save {@code otherBatch} before the first insert.
+     */
+    private List<ThingEvent> raceOnFirstSave(Message otherBatch, Channel otherChannel) {
+        List<ThingEvent> savedThingEvents = new ArrayList<>();
+        when(thingEventRepository.findAllByThingUriInAndCreatedInstantIn(any(), any()))
+                .thenAnswer(invocation -> new ArrayList<>(savedThingEvents));
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        ThingEventConsumer otherConsumer = new ThingEventConsumer(new Jackson2JsonMessageConverter(),
+                thingEventRepository, new ThingEventCodec(List.of(BASE_URL)), mock(ThingHighWaterMarks.class),
+                new ThingEventReceipts(thingEventRepository, 100), transactionManager);
+
+        AtomicBoolean raced = new AtomicBoolean();
+        when(thingEventRepository.saveAll(any())).thenAnswer(invocation -> {
+            if (raced.compareAndSet(false, true)) {
+                otherConsumer.onMessage(otherBatch, otherChannel);
+            }
+
+            List<ThingEvent> thingEvents = invocation.getArgument(0);
+            if (thingEvents.stream().anyMatch(thingEvent -> savedThingEvents.stream().anyMatch(savedThingEvent ->
+                    savedThingEvent.getThingUri().equals(thingEvent.getThingUri())
+                            && savedThingEvent.getCreatedInstant().equals(thingEvent.getCreatedInstant())))) {
+                throw new DataIntegrityViolationException("Unique index or primary key violation: thing_event_receipt");
+            }
+            savedThingEvents.addAll(thingEvents);
+            return thingEvents;
+        });
+        return savedThingEvents;
+    }
+
+    private static Message publishedMessage(long deliveryTag, long thingId) {
+        Message message = new dev.samsanders.demo.rabbitmq.publisher.app.ThingEventCodec(BASE_URL)
+                .toMessage(new dev.samsanders.demo.rabbitmq.publisher.thing.ThingEvent(thingId));
+        message.getMessageProperties().setDeliveryTag(deliveryTag);
+        return message;
+    }
+
+    private static List<dev.samsanders.demo.rabbitmq.publisher.thing.ThingEvent> publisherThingEvents(
+            long... thingIds) {
+        return LongStream.of(thingIds)
+                .mapToObj(dev.samsanders.demo.rabbitmq.publisher.thing.ThingEvent::new)
+                .collect(Collectors.toList());
+    }
+
+    private Message publishBatch(long... thingIds) {
+        return publishBatch(publisherThingEvents(thingIds));
+    }
+
+    /**
+     * Batches ThingEvents with the publisher's {@link ThingEventBatcher}, and returns the message it sends.
+     */
+    private Message publishBatch(List<dev.samsanders.demo.rabbitmq.publisher.thing.ThingEvent> thingEvents) {
+        RabbitTemplate rabbitTemplate = mock(RabbitTemplate.class);
+        InFlightWindow inFlightWindow = new InFlightWindow(thingEvents.size());
+        ThingEventBatcher thingEventBatcher = new ThingEventBatcher(rabbitTemplate, inFlightWindow,
+                new ThingEventConfirmTracker(inFlightWindow, new SimpleMeterRegistry()), thingEvents.size(),
+                Duration.ofSeconds(1));
+        dev.samsanders.demo.rabbitmq.publisher.app.ThingEventCodec publisherCodec =
+                new dev.samsanders.demo.rabbitmq.publisher.app.ThingEventCodec(BASE_URL);
+
+        for (dev.samsanders.demo.rabbitmq.publisher.thing.ThingEvent thingEvent : thingEvents) {
+            thingEventBatcher.add(thingEvent, publisherCodec.toMessage(thingEvent), "");
+        }
+
+        ArgumentCaptor<Message> message = ArgumentCaptor.forClass(Message.class);
+        verify(rabbitTemplate).send(any(), eq(""), message.capture(), any(CorrelationData.class));
+        assertEquals(MessageProperties.BATCH_FORMAT_LENGTH_HEADER4,
+                message.getValue().getMessageProperties().getHeader(MessageProperties.SPRING_BATCH_FORMAT));
+        return message.getValue();
+    }
+
+    private static URI thingUri(long thingId) {
+        return URI.create(BASE_URL + "/things/" + thingId);
+    }
+
+}
@@ -0,0 +1,76 @@
+package dev.samsanders.demo.rabbitmq.consumer.app;
+
+import dev.samsanders.demo.rabbitmq.consumer.thing.ThingEvent;
+import dev.samsanders.demo.rabbitmq.consumer.thing.ThingEventRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+class ThingEventRetentionTests {
+
+    private static final Duration MAX_AGE = Duration.ofDays(7);
+
+    @Autowired
+    ThingEventRepository thingEventRepository;
+
+    private long nextThingId = 1;
+
+    @Test
+    void purgesThingEventsConsumedBeforeTheMaxAge() {
+        saveThingEvents(3, Instant.now().minus(MAX_AGE).minus(Duration.ofDays(1)));
+        saveThingEvents(2, Instant.now());
+        saveThingEvents(2, null);
+
+        new ThingEventRetention(thingEventRepository, MAX_AGE, 100, 2, 10).purgeConsumedThingEvents();
+
+        // Expect only the ThingEvents consumed before the max age were purged
+        assertEquals(2, thingEventRepository.countByConsumedInstantIsNotNull());
+        assertEquals(4, thingEventRepository.count());
+    }
+
+    @Test
+    void capsTheNumberOfConsumedThingEvents() {
+        saveThingEvents(5, Instant.now());
+        saveThingEvents(2, null);
+
+        new ThingEventRetention(thingEventRepository, MAX_AGE, 2, 2, 10).purgeConsumedThingEvents();
+
+        // Expect the oldest consumed ThingEvents were purged down to the cap, and no unconsumed ones
+        assertEquals(2, thingEventRepository.countByConsumedInstantIsNotNull());
+        assertEquals(4, thingEventRepository.count());
+    }
+
+    @Test
+    void boundsTheBatchesPerRun() {
+        saveThingEvents(5, Instant.now().minus(MAX_AGE).minus(Duration.ofDays(1)));
+        saveThingEvents(1, null);
+        ThingEventRetention thingEventRetention = new ThingEventRetention(thingEventRepository, MAX_AGE, 100, 2, 2);
+
+        thingEventRetention.purgeConsumedThingEvents();
+
+        // Expect two batches of two were purged, leaving the rest for the next run
+        assertEquals(1, thingEventRepository.countByConsumedInstantIsNotNull());
+
+        thingEventRetention.purgeConsumedThingEvents();
+
+        assertEquals(0, thingEventRepository.countByConsumedInstantIsNotNull());
+        assertEquals(1, thingEventRepository.count());
+    }
+
+    private void saveThingEvents(int count, Instant consumedInstant) {
+        for (int i = 0; i < count; i++) {
+            ThingEvent thingEvent = new ThingEvent(URI.create("https://samsanders.dev/things/" + nextThingId++),
+                    Instant.now());
+            thingEvent.setConsumedInstant(consumedInstant);
+            thingEventRepository.save(thingEvent);
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+package dev.samsanders.demo.rabbitmq.consumer.app;
+
+import dev.samsanders.demo.rabbitmq.consumer.thing.Thing;
+import dev.samsanders.demo.rabbitmq.consumer.thing.ThingEvent;
+import dev.samsanders.demo.rabbitmq.consumer.thing.ThingEventRepository;
+import dev.samsanders.demo.rabbitmq.consumer.thing.ThingHighWaterMarkRepository;
+import dev.samsanders.demo.rabbitmq.consumer.thing.ThingRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.RequestEntity;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ThingGetterTests {
+
+    private static final URI THING_URI = URI.create("https://samsanders.dev/things/1");
+
+    private ThingEventRepository thingEventRepository;
+    private ThingHighWaterMarkRepository thingHighWaterMarkRepository;
+    private ThingRepository thingRepository;
+    private ThingGetter thingGetter;
+
+    @BeforeEach
+    void beforeEach() {
+        List<ThingEvent> thingEvents = List.of(new ThingEvent(THING_URI, Instant.now()));
+        thingEventRepository = mock(ThingEventRepository.class);
+        when(thingEventRepository.findClaimable(anyString(), any(), any())).thenReturn(thingEvents);
+        when(thingEventRepository.claim(any(), anyString(), any(), any())).thenReturn(1);
+        when(thingEventRepository.findByIdInAndLeaseOwnerAndConsumedInstantIsNullOrderByCreatedInstantAscIdAsc(any(),
+                anyString())).thenReturn(thingEvents);
+
+        RestTemplate restTemplate = mock(RestTemplate.class);
+        when(restTemplate.exchange(any(RequestEntity.class), eq(Thing.class)))
+                .thenReturn(ResponseEntity.ok(new Thing()));
+
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+
+        thingHighWaterMarkRepository = mock(ThingHighWaterMarkRepository.class);
+        thingRepository = mock(ThingRepository.class);
+        thingGetter = new ThingGetter(thingEventRepository, restTemplate, thingRepository,
+                new ThingHighWaterMarks(thingHighWaterMarkRepository, 100), transactionManager, 1, "node",
+                Duration.ofSeconds(30), 10);
+    }
+
+    @AfterEach
+    void afterEach() {
+        thingGetter.shutdown();
+    }
+
+    @Test
+    void savesAFetchThatMovesTheHighWaterMarkForward() {
+        when(thingHighWaterMarkRepository.advance(anyString(), any())).thenReturn(1);
+
+        thingGetter.getAllUnconsumedThings();
+
+        verify(thingRepository).save(any());
+        verify(thingEventRepository).markConsumed(any(), any());
+    }
+
+    @Test
+    void doesNotOverwriteANewerFetch() {
+        // Another replica saved the Thing as of the same or a newer ThingEvent while this one was fetching it
+        when(thingHighWaterMarkRepository.advance(anyString(), any())).thenReturn(0);
+        when(thingHighWaterMarkRepository.existsById(anyString())).thenReturn(true);
+
+        thingGetter.getAllUnconsumedThings();
+
+        verify(thingRepository, never()).save(any());
+        verify(thingEventRepository).markConsumed(any(), any());
+    }
+
+    @Test
+    void leavesThingEventsWhoseLeaseWasLost() {
+        // The page is leased, but the lease has been taken over by the time the Thing is fetched
+        when(thingEventRepository.claim(any(), anyString(), any(), any())).thenReturn(1, 0);
+
+        thingGetter.getAllUnconsumedThings();
+
+        verify(thingRepository, never()).save(any());
+        verify(thingEventRepository, never()).markConsumed(any(), any());
+    }
+
+}
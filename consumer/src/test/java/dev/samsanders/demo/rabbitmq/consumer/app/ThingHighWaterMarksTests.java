@@ -0,0 +1,50 @@
+package dev.samsanders.demo.rabbitmq.consumer.app;
+
+import dev.samsanders.demo.rabbitmq.consumer.thing.ThingEvent;
+import dev.samsanders.demo.rabbitmq.consumer.thing.ThingHighWaterMark;
+import dev.samsanders.demo.rabbitmq.consumer.thing.ThingHighWaterMarkRepository;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.time.Instant;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ThingHighWaterMarksTests {
+
+    private static final Instant FETCHED_AS_OF_INSTANT = Instant.parse("2020-10-27T01:15:56.035423Z");
+
+    @Test
+    void keepsOnlyTheMostRecentlyUsedThingsInMemory() {
+        ThingHighWaterMarkRepository thingHighWaterMarkRepository = mock(ThingHighWaterMarkRepository.class);
+        when(thingHighWaterMarkRepository.findById(anyString())).thenAnswer(invocation ->
+                Optional.of(new ThingHighWaterMark(invocation.getArgument(0), FETCHED_AS_OF_INSTANT)));
+        ThingHighWaterMarks thingHighWaterMarks = new ThingHighWaterMarks(thingHighWaterMarkRepository, 2);
+
+        assertTrue(thingHighWaterMarks.isStale(thingEvent(1)));
+        assertTrue(thingHighWaterMarks.isStale(thingEvent(2)));
+        assertTrue(thingHighWaterMarks.isStale(thingEvent(1)));
+        assertFalse(thingHighWaterMarks.isStale(new ThingEvent(thingUri(3), FETCHED_AS_OF_INSTANT.plusSeconds(1))));
+
+        // Expect Thing 1 was still in memory, and Thing 2, the least recently used, was evicted to make room for 3
+        assertTrue(thingHighWaterMarks.isStale(thingEvent(1)));
+        assertTrue(thingHighWaterMarks.isStale(thingEvent(2)));
+        verify(thingHighWaterMarkRepository, times(1)).findById(thingUri(1).toString());
+        verify(thingHighWaterMarkRepository, times(2)).findById(thingUri(2).toString());
+    }
+
+    private static ThingEvent thingEvent(long thingId) {
+        return new ThingEvent(thingUri(thingId), FETCHED_AS_OF_INSTANT);
+    }
+
+    private static URI thingUri(long thingId) {
+        return URI.create("https://samsanders.dev/things/" + thingId);
+    }
+
+}
@@ -1,7 +1,9 @@
 package dev.samsanders.demo.rabbitmq.publisher;
 
+import dev.samsanders.demo.rabbitmq.publisher.app.InFlightWindow;
+import dev.samsanders.demo.rabbitmq.publisher.app.ThingEventConfirmTracker;
 import dev.samsanders.demo.rabbitmq.publisher.app.ThingEventPublisher;
-import dev.samsanders.demo.rabbitmq.publisher.thing.ThingEventRepository;
+import dev.samsanders.demo.rabbitmq.publisher.thing.ThingEventOutbox;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.beans.factory.annotation.Value;
@@ -9,6 +11,8 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
 
+import java.time.Duration;
+
 @Configuration
 @Profile("contract-test")
 public class PublisherContractTestConfiguration {
@@ -16,7 +20,9 @@ public class PublisherContractTestConfiguration {
     @Bean
     ThingEventPublisher thingEventPublisher(
             RabbitTemplate rabbitTemplate,
-            ThingEventRepository thingEventRepository,
+            ThingEventOutbox thingEventOutbox,
+            InFlightWindow inFlightWindow,
+            ThingEventConfirmTracker thingEventConfirmTracker,
             Jackson2JsonMessageConverter jackson2JsonMessageConverter,
             @Value("${publisher.exchange-name}") String exchangeName,
             @Value("${publisher.base-url}") String baseUrl) {
@@ -24,7 +30,9 @@ public class PublisherContractTestConfiguration {
         rabbitTemplate.setExchange(exchangeName);
         rabbitTemplate.setMessageConverter(jackson2JsonMessageConverter);
 
-        return new ThingEventPublisher(rabbitTemplate, thingEventRepository, baseUrl);
+        return new ThingEventPublisher(rabbitTemplate, thingEventOutbox, baseUrl, inFlightWindow, 100,
+                Duration.ZERO, false, 0, ThingEventPublisher.WireFormat.JSON, null,
+                thingEventConfirmTracker, null);
     }
 
 }
@@ -1,7 +1,10 @@
 package dev.samsanders.demo.rabbitmq.publisher.contracts;
 
 import dev.samsanders.demo.rabbitmq.publisher.thing.Thing;
+import dev.samsanders.demo.rabbitmq.publisher.thing.ThingEvent;
+import dev.samsanders.demo.rabbitmq.publisher.thing.ThingEventRepository;
 import dev.samsanders.demo.rabbitmq.publisher.thing.ThingRepository;
+import dev.samsanders.demo.rabbitmq.publisher.thing.ThingVersion;
 import io.restassured.module.mockmvc.RestAssuredMockMvc;
 import org.junit.jupiter.api.BeforeEach;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -11,9 +14,13 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.cloud.contract.verifier.messaging.boot.AutoConfigureMessageVerifier;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.time.Instant;
+import java.util.List;
 import java.util.Optional;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 @SpringBootTest
@@ -27,13 +34,27 @@ public class WebBase {
     @MockBean
     ThingRepository thingRepository;
 
+    @MockBean
+    ThingEventRepository thingEventRepository;
+
     @BeforeEach
     void before() {
         RestAssuredMockMvc.mockMvc(mockMvc);
 
-        Thing thing = new Thing("some-content");
+        Thing thing = new Thing(1L, "some-content");
         when(thingRepository.save(any())).thenReturn(thing);
         when(thingRepository.findById(any())).thenReturn(Optional.of(thing));
+        when(thingRepository.findAllById(any())).thenReturn(List.of(thing));
+
+        ThingVersion thingVersion = mock(ThingVersion.class);
+        when(thingVersion.getVersion()).thenReturn(0L);
+        when(thingRepository.findVersionById(anyLong())).thenReturn(Optional.of(thingVersion));
+
+        ThingEvent thingEvent = mock(ThingEvent.class);
+        when(thingEvent.getId()).thenReturn(1L);
+        when(thingEvent.getThingId()).thenReturn(1L);
+        when(thingEvent.getCreatedInstant()).thenReturn(Instant.parse("2020-10-27T01:15:56.035423Z"));
+        when(thingEventRepository.findSettled(any(), any())).thenReturn(List.of(thingEvent));
     }
 
 }
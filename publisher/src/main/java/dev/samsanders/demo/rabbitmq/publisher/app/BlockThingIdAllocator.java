@@ -0,0 +1,88 @@
+package dev.samsanders.demo.rabbitmq.publisher.app;
+
+import dev.samsanders.demo.rabbitmq.publisher.thing.IdSegment;
+import dev.samsanders.demo.rabbitmq.publisher.thing.IdSegmentRepository;
+import dev.samsanders.demo.rabbitmq.publisher.thing.ThingIdAllocator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands out Thing ids from blocks reserved with a conditional update of the {@link IdSegment} row.
+ */
+public class BlockThingIdAllocator implements ThingIdAllocator {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlockThingIdAllocator.class);
+    private static final String SEGMENT_NAME = "thing";
+
+    private final IdSegmentRepository idSegmentRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final long blockSize;
+    private final AtomicReference<Block> block = new AtomicReference<>(new Block(0L, 0L));
+
+    public BlockThingIdAllocator(IdSegmentRepository idSegmentRepository,
+                                 PlatformTransactionManager transactionManager,
+                                 long blockSize) {
+        this.idSegmentRepository = idSegmentRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public long nextId() {
+        while (true) {
+            Block current = block.get();
+            long id = current.next.getAndIncrement();
+            if (id < current.limit) {
+                return id;
+            }
+
+            synchronized (this) {
+                if (block.get() == current) {
+                    block.set(reserveBlock());
+                }
+            }
+        }
+    }
+
+    private Block reserveBlock() {
+        try {
+            return transactionTemplate.execute(status -> reserveBlockInTransaction());
+        } catch (DataIntegrityViolationException e) {
+            // Another node created the segment first, so it exists now
+            return transactionTemplate.execute(status -> reserveBlockInTransaction());
+        }
+    }
+
+    private Block reserveBlockInTransaction() {
+        if (idSegmentRepository.advance(SEGMENT_NAME, blockSize) == 0) {
+            idSegmentRepository.save(new IdSegment(SEGMENT_NAME, 1L + blockSize));
+            logger.info(String.format("Created %s id segment", SEGMENT_NAME));
+        }
+
+        long limit = idSegmentRepository.findById(SEGMENT_NAME)
+                .map(IdSegment::getNextValue)
+                .orElseThrow(() -> new IllegalStateException(String.format("Can't find %s id segment", SEGMENT_NAME)));
+        logger.info(String.format("Reserved %s ids %d to %d", SEGMENT_NAME, limit - blockSize, limit - 1));
+
+        return new Block(limit - blockSize, limit);
+    }
+
+    private static final class Block {
+
+        private final AtomicLong next;
+        private final long limit;
+
+        private Block(long first, long limit) {
+            this.next = new AtomicLong(first);
+            this.limit = limit;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package dev.samsanders.demo.rabbitmq.publisher.app;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounds unconfirmed publishes; the limit halves for every nacked ThingEvent and grows back as acks arrive.
+ */
+public class InFlightWindow {
+
+    private final int maxInFlight;
+    private final Set<Long> eventIds = ConcurrentHashMap.newKeySet();
+    private final Lock lock = new ReentrantLock();
+    private final Condition slotAvailable = lock.newCondition();
+    private volatile int limit;
+    private int acksSinceIncrease;
+    private boolean blocked;
+
+    public InFlightWindow(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+        this.limit = maxInFlight;
+    }
+
+    public Acquisition tryAcquire(long eventId, Duration timeout) throws InterruptedException {
+        long remainingNanos = timeout.toNanos();
+
+        lock.lockInterruptibly();
+        try {
+            while (!eventIds.contains(eventId) && (blocked || eventIds.size() >= limit)) {
+                if (remainingNanos <= 0) {
+                    return Acquisition.FULL;
+                }
+                remainingNanos = slotAvailable.awaitNanos(remainingNanos);
+            }
+
+            return eventIds.add(eventId) ? Acquisition.ACQUIRED : Acquisition.ALREADY_IN_FLIGHT;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean contains(long eventId) {
+        return eventIds.contains(eventId);
+    }
+
+    public void release(long eventId) {
+        lock.lock();
+        try {
+            if (eventIds.remove(eventId)) {
+                slotAvailable.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Feeds back a confirm covering {@code events} ThingEvents, so a batch counts as much as its ThingEvents would.
+     */
+    public void confirmed(boolean ack, int events) {
+        lock.lock();
+        try {
+            if (!ack) {
+                limit = Math.max(1, limit >> Math.min(events, Integer.SIZE - 1));
+                acksSinceIncrease = 0;
+                return;
+            }
+
+            if (limit >= maxInFlight) {
+                return;
+            }
+
+            acksSinceIncrease += events;
+            while (limit < maxInFlight && acksSinceIncrease >= limit) {
+                acksSinceIncrease -= limit;
+                limit++;
+                slotAvailable.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void setBlocked(boolean blocked) {
+        lock.lock();
+        try {
+            this.blocked = blocked;
+            if (!blocked) {
+                slotAvailable.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        return eventIds.size();
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public enum Acquisition {
+        ACQUIRED,
+        ALREADY_IN_FLIGHT,
+        FULL
+    }
+
+}
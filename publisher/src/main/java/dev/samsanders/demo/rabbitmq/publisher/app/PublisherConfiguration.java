@@ -2,17 +2,44 @@ package dev.samsanders.demo.rabbitmq.publisher.app;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import dev.samsanders.demo.rabbitmq.publisher.thing.IdSegmentRepository;
+import dev.samsanders.demo.rabbitmq.publisher.thing.JournalThingEventOutbox;
+import dev.samsanders.demo.rabbitmq.publisher.thing.JpaThingEventOutbox;
+import dev.samsanders.demo.rabbitmq.publisher.thing.ThingEvent;
+import dev.samsanders.demo.rabbitmq.publisher.thing.ThingEventOutbox;
 import dev.samsanders.demo.rabbitmq.publisher.thing.ThingEventRepository;
+import dev.samsanders.demo.rabbitmq.publisher.thing.ThingIdAllocator;
+import dev.samsanders.demo.rabbitmq.publisher.thing.ThingNdjsonWriter;
+import dev.samsanders.demo.rabbitmq.publisher.thing.ThingRepository;
+import dev.samsanders.demo.rabbitmq.publisher.thing.ThingResponseCache;
+import dev.samsanders.demo.rabbitmq.publisher.thing.ThingResponseCache.CachedThing;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.amqp.core.DirectExchange;
 import org.springframework.amqp.core.FanoutExchange;
 import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
 import org.springframework.amqp.rabbit.connection.CachingConnectionFactory.ConfirmType;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
 
 @Configuration
 public class PublisherConfiguration {
@@ -28,28 +55,177 @@ public class PublisherConfiguration {
         return new FanoutExchange(exchangeName);
     }
 
+    @ConditionalOnProperty("publisher.partitions.enabled")
+    @Bean
+    DirectExchange partitionedExchange(
+            @Value("${publisher.partitions.exchange-name:publisher-thing-events-partitioned}") String exchangeName) {
+        return new DirectExchange(exchangeName);
+    }
+
+    @ConditionalOnProperty("publisher.partitions.enabled")
+    @Bean
+    ThingEventPartitioner thingEventPartitioner(@Value("${publisher.partitions.count:8}") int partitions) {
+        return new ThingEventPartitioner(partitions);
+    }
+
     @Profile("!contract-test")
     @Bean
     ThingEventPublisher thingEventPublisher(
             CachingConnectionFactory cachingConnectionFactory,
             ThingEventConfirmCallback thingEventConfirmCallback,
             RabbitTemplate rabbitTemplate,
-            ThingEventRepository thingEventRepository,
+            ThingEventOutbox thingEventOutbox,
+            InFlightWindow inFlightWindow,
+            ObjectProvider<ThingEventBatcher> thingEventBatcher,
+            ThingEventConfirmTracker thingEventConfirmTracker,
+            ObjectProvider<ThingEventPartitioner> thingEventPartitioner,
             Jackson2JsonMessageConverter jackson2JsonMessageConverter,
             @Value("${publisher.base-url}") String baseUrl,
-            @Value("${publisher.exchange-name}") String exchangeName) {
+            @Value("${publisher.exchange-name}") String exchangeName,
+            @Value("${publisher.partitions.exchange-name:publisher-thing-events-partitioned}")
+                    String partitionedExchangeName,
+            @Value("${publisher.relay.page-size:100}") int pageSize,
+            @Value("${publisher.relay.window-timeout:5s}") Duration windowTimeout,
+            @Value("${publisher.relay.dispatch-after-commit:true}") boolean dispatchAfterCommit,
+            @Value("${publisher.relay.after-commit-queue-capacity:1000}") int afterCommitQueueCapacity,
+            @Value("${publisher.wire-format:json}") ThingEventPublisher.WireFormat wireFormat) {
 
         cachingConnectionFactory.setPublisherConfirmType(ConfirmType.CORRELATED);
         rabbitTemplate.setConnectionFactory(cachingConnectionFactory);
         rabbitTemplate.setConfirmCallback(thingEventConfirmCallback);
-        rabbitTemplate.setExchange(exchangeName);
+        ThingEventPartitioner partitioner = thingEventPartitioner.getIfAvailable();
+        rabbitTemplate.setExchange(partitioner == null ? exchangeName : partitionedExchangeName);
+        if (partitioner != null) {
+            cachingConnectionFactory.setPublisherReturns(true);
+            rabbitTemplate.setMandatory(true);
+        }
+
+        return new ThingEventPublisher(rabbitTemplate, thingEventOutbox, baseUrl, inFlightWindow, pageSize,
+                windowTimeout, dispatchAfterCommit, afterCommitQueueCapacity, wireFormat,
+                thingEventBatcher.getIfAvailable(), thingEventConfirmTracker, partitioner);
+    }
+
+    @ConditionalOnProperty(name = "publisher.outbox.store", havingValue = "jpa", matchIfMissing = true)
+    @Bean
+    ThingEventOutbox jpaThingEventOutbox(ThingEventRepository thingEventRepository,
+                                         @Value("${publisher.relay.node-id:${random.uuid}}") String nodeId,
+                                         @Value("${publisher.relay.lease-duration:30s}") Duration leaseDuration) {
+        return new JpaThingEventOutbox(thingEventRepository, nodeId, leaseDuration);
+    }
+
+    @ConditionalOnProperty(name = "publisher.outbox.store", havingValue = "journal")
+    @Bean
+    ThingEventOutbox journalThingEventOutbox(
+            @Value("${publisher.outbox.journal.directory:${java.io.tmpdir}/publisher-outbox}") Path directory,
+            @Value("${publisher.outbox.journal.segment-records:65536}") int segmentRecords,
+            @Value("${publisher.things.events.feed.enabled:true}") boolean feedEnabled) throws IOException {
+        if (feedEnabled) {
+            throw new IllegalStateException("The ThingEvent feed reads the thing_event table, which the journal " +
+                    "store doesn't write to; set publisher.things.events.feed.enabled=false to use the journal");
+        }
+
+        return new JournalThingEventOutbox(directory, segmentRecords);
+    }
+
+    @ConditionalOnProperty(name = "publisher.outbox.store", havingValue = "jpa", matchIfMissing = true)
+    @Bean
+    ThingEventRetention thingEventRetention(
+            ThingEventRepository thingEventRepository,
+            @Value("${publisher.retention.max-age:7d}") Duration maxAge,
+            @Value("${publisher.retention.max-published:100000}") long maxPublished,
+            @Value("${publisher.retention.batch-size:1000}") int batchSize,
+            @Value("${publisher.retention.max-batches-per-run:100}") int maxBatchesPerRun) {
+        return new ThingEventRetention(thingEventRepository, maxAge, maxPublished, batchSize, maxBatchesPerRun);
+    }
+
+    @Bean
+    MeterBinder thingEventOutboxMetrics(ThingEventOutbox thingEventOutbox) {
+        return meterRegistry -> {
+            Gauge.builder("publisher.outbox.pending", thingEventOutbox, ThingEventOutbox::countUnpublished)
+                    .description("ThingEvents waiting to be published")
+                    .register(meterRegistry);
+            Gauge.builder("publisher.outbox.oldest.age", thingEventOutbox, PublisherConfiguration::oldestUnpublishedAge)
+                    .description("Seconds since the oldest unpublished ThingEvent was created")
+                    .baseUnit("seconds")
+                    .register(meterRegistry);
+        };
+    }
 
-        return new ThingEventPublisher(rabbitTemplate, thingEventRepository, baseUrl);
+    @Bean
+    ThingEventOutboxEndpoint thingEventOutboxEndpoint(ThingEventOutbox thingEventOutbox,
+                                                      @Value("${publisher.outbox.endpoint.limit:20}") int limit) {
+        return new ThingEventOutboxEndpoint(thingEventOutbox, limit);
+    }
+
+    @Profile("!contract-test")
+    @ConditionalOnProperty("publisher.batch.enabled")
+    @Bean
+    ThingEventBatcher thingEventBatcher(RabbitTemplate rabbitTemplate,
+                                        InFlightWindow inFlightWindow,
+                                        ThingEventConfirmTracker thingEventConfirmTracker,
+                                        @Value("${publisher.batch.size:100}") int batchSize,
+                                        @Value("${publisher.batch.linger-ms:10}") long lingerMillis) {
+        return new ThingEventBatcher(rabbitTemplate, inFlightWindow, thingEventConfirmTracker, batchSize,
+                Duration.ofMillis(lingerMillis));
+    }
+
+    @Bean
+    InFlightWindow inFlightWindow(@Value("${publisher.relay.max-in-flight:1000}") int maxInFlight) {
+        return new InFlightWindow(maxInFlight);
+    }
+
+    @Bean
+    ThingEventConfirmTracker thingEventConfirmTracker(InFlightWindow inFlightWindow, MeterRegistry meterRegistry) {
+        return new ThingEventConfirmTracker(inFlightWindow, meterRegistry);
+    }
+
+    @Bean
+    ThingEventConfirmCallback thingEventConfirmCallback(
+            ThingEventOutbox thingEventOutbox,
+            InFlightWindow inFlightWindow,
+            MeterRegistry meterRegistry,
+            @Value("${publisher.confirm.batch-size:500}") int batchSize,
+            @Value("${publisher.confirm.flush-interval-ms:100}") long flushIntervalMillis) {
+        return new ThingEventConfirmCallback(thingEventOutbox, inFlightWindow, meterRegistry, batchSize,
+                Duration.ofMillis(flushIntervalMillis));
+    }
+
+    @Bean
+    ThingIdAllocator thingIdAllocator(IdSegmentRepository idSegmentRepository,
+                                      PlatformTransactionManager transactionManager,
+                                      @Value("${publisher.thing-id.block-size:2000}") long blockSize) {
+        return new BlockThingIdAllocator(idSegmentRepository, transactionManager, blockSize);
+    }
+
+    @Bean
+    ThingNdjsonWriter thingNdjsonWriter(JdbcTemplate jdbcTemplate,
+                                        PlatformTransactionManager transactionManager,
+                                        ObjectMapper objectMapper,
+                                        @Value("${publisher.things.stream-fetch-size:500}") int fetchSize) {
+        return new ThingNdjsonWriter(jdbcTemplate, transactionManager, objectMapper.getFactory(), fetchSize);
     }
 
     @Bean
-    ThingEventConfirmCallback thingEventConfirmCallback(ThingEventRepository thingEventRepository) {
-        return new ThingEventConfirmCallback(thingEventRepository);
+    ThingResponseCache thingResponseCache(ThingRepository thingRepository,
+                                          ObjectMapper objectMapper,
+                                          MeterRegistry meterRegistry,
+                                          @Value("${publisher.things.cache.maximum-size:10000}") long maximumSize) {
+        Cache<Long, CachedThing> cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "things");
+
+        return new ThingResponseCache(cache, thingRepository, objectMapper);
+    }
+
+    private static double oldestUnpublishedAge(ThingEventOutbox thingEventOutbox) {
+        List<ThingEvent> oldest = thingEventOutbox.findOldestUnpublished(1);
+        if (oldest.isEmpty()) {
+            return 0;
+        }
+
+        return Duration.between(oldest.get(0).getCreatedInstant(), Instant.now()).toMillis() / 1000.0;
     }
 
     @Bean
@@ -0,0 +1,29 @@
+package dev.samsanders.demo.rabbitmq.publisher.app;
+
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+
+import java.util.List;
+
+/**
+ * Correlates one confirm with every ThingEvent packed into a batched message.
+ */
+public class ThingEventBatchCorrelationData extends CorrelationData {
+
+    private final List<Long> eventIds;
+
+    public ThingEventBatchCorrelationData(List<Long> eventIds) {
+        super(String.format("batch-%d-%d", eventIds.get(0), eventIds.size()));
+        this.eventIds = List.copyOf(eventIds);
+    }
+
+    public List<Long> getEventIds() {
+        return eventIds;
+    }
+
+    @Override
+    public String toString() {
+        return "ThingEventBatchCorrelationData{" +
+                "eventIds=" + eventIds +
+                '}';
+    }
+}
@@ -0,0 +1,114 @@
+package dev.samsanders.demo.rabbitmq.publisher.app;
+
+import dev.samsanders.demo.rabbitmq.publisher.thing.ThingEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Packs ThingEvent messages into lengthHeader4 batches, each with one correlation covering all its ThingEvents.
+ */
+public class ThingEventBatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThingEventBatcher.class);
+
+    private final RabbitTemplate rabbitTemplate;
+    private final InFlightWindow inFlightWindow;
+    private final ThingEventConfirmTracker thingEventConfirmTracker;
+    private final int batchSize;
+    private final Duration linger;
+    private final Map<String, Batch> batches = new LinkedHashMap<>();
+
+    public ThingEventBatcher(RabbitTemplate rabbitTemplate, InFlightWindow inFlightWindow,
+                             ThingEventConfirmTracker thingEventConfirmTracker, int batchSize, Duration linger) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.inFlightWindow = inFlightWindow;
+        this.thingEventConfirmTracker = thingEventConfirmTracker;
+        this.batchSize = batchSize;
+        this.linger = linger;
+    }
+
+    public synchronized void add(ThingEvent thingEvent, Message message, String routingKey) {
+        Batch batch = batches.computeIfAbsent(routingKey, Batch::new);
+        batch.add(thingEvent, message);
+
+        if (batch.eventIds.size() >= batchSize) {
+            send(batch);
+        }
+    }
+
+    public synchronized void flush() {
+        List.copyOf(batches.values()).forEach(this::send);
+    }
+
+    @Scheduled(fixedDelayString = "${publisher.batch.linger-ms:10}")
+    public synchronized void flushLingering() {
+        Instant now = Instant.now();
+        List.copyOf(batches.values()).stream()
+                .filter(batch -> Duration.between(batch.startedInstant, now).compareTo(linger) >= 0)
+                .forEach(this::send);
+    }
+
+    private void send(Batch batch) {
+        batches.remove(batch.routingKey);
+
+        ByteBuffer body = ByteBuffer.allocate(batch.bodySize);
+        batch.messages.forEach(message -> {
+            body.putInt(message.getBody().length);
+            body.put(message.getBody());
+        });
+
+        MessageProperties messageProperties = batch.messages.get(0).getMessageProperties();
+        messageProperties.setHeader(MessageProperties.SPRING_BATCH_FORMAT,
+                MessageProperties.BATCH_FORMAT_LENGTH_HEADER4);
+        messageProperties.setHeader(AmqpHeaders.BATCH_SIZE, batch.messages.size());
+
+        ThingEventBatchCorrelationData correlationData = thingEventConfirmTracker
+                .track(new ThingEventBatchCorrelationData(batch.eventIds), batch.createdInstants);
+        logger.info(String.format("Publishing batch of %d ThingEvents", batch.eventIds.size()));
+
+        try {
+            rabbitTemplate.send(rabbitTemplate.getExchange(), batch.routingKey,
+                    new Message(body.array(), messageProperties), correlationData);
+        } catch (AmqpException e) {
+            correlationData.getFuture().setException(e);
+            batch.eventIds.forEach(inFlightWindow::release);
+            throw e;
+        }
+    }
+
+    private static final class Batch {
+
+        private final String routingKey;
+        private final Instant startedInstant = Instant.now();
+        private final List<Long> eventIds = new ArrayList<>();
+        private final List<Instant> createdInstants = new ArrayList<>();
+        private final List<Message> messages = new ArrayList<>();
+        private int bodySize;
+
+        private Batch(String routingKey) {
+            this.routingKey = routingKey;
+        }
+
+        private void add(ThingEvent thingEvent, Message message) {
+            eventIds.add(thingEvent.getId());
+            createdInstants.add(thingEvent.getCreatedInstant());
+            messages.add(message);
+            bodySize += Integer.BYTES + message.getBody().length;
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+package dev.samsanders.demo.rabbitmq.publisher.app;
+
+import dev.samsanders.demo.rabbitmq.publisher.thing.ThingEvent;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.zip.CRC32;
+
+/**
+ * Big-endian: version | thingId | createdInstant as epoch nanos | CRC-32 of the base URL, which consumers look up.
+ */
+public class ThingEventCodec {
+
+    public static final String CONTENT_TYPE = "application/vnd.thing-event+binary";
+    static final byte VERSION = 2;
+    static final int LENGTH = 21;
+
+    private final int baseUrlId;
+
+    public ThingEventCodec(String baseUrl) {
+        this.baseUrlId = baseUrlId(baseUrl);
+    }
+
+    public Message toMessage(ThingEvent thingEvent) {
+        MessageProperties messageProperties = new MessageProperties();
+        messageProperties.setContentType(CONTENT_TYPE);
+
+        return new Message(encode(thingEvent), messageProperties);
+    }
+
+    byte[] encode(ThingEvent thingEvent) {
+        byte[] body = new byte[LENGTH];
+        body[0] = VERSION;
+        putLong(body, 1, thingEvent.getThingId());
+        putLong(body, 9, toEpochNanos(thingEvent.getCreatedInstant()));
+        putInt(body, 17, baseUrlId);
+
+        return body;
+    }
+
+    static int baseUrlId(String baseUrl) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(baseUrl.getBytes(StandardCharsets.UTF_8));
+        return (int) crc32.getValue();
+    }
+
+    private static long toEpochNanos(Instant instant) {
+        return Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1_000_000_000L), instant.getNano());
+    }
+
+    private static void putLong(byte[] bytes, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            bytes[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        for (int i = 3; i >= 0; i--) {
+            bytes[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+}
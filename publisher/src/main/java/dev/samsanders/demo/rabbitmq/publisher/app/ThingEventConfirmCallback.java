@@ -1,24 +1,55 @@
 package dev.samsanders.demo.rabbitmq.publisher.app;
 
-import dev.samsanders.demo.rabbitmq.publisher.thing.ThingEvent;
-import dev.samsanders.demo.rabbitmq.publisher.thing.ThingEventRepository;
+import dev.samsanders.demo.rabbitmq.publisher.thing.ThingEventOutbox;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.amqp.rabbit.connection.CorrelationData;
 import org.springframework.amqp.rabbit.core.RabbitTemplate.ConfirmCallback;
+import org.springframework.scheduling.annotation.Scheduled;
 
+import java.time.Duration;
 import java.time.Instant;
-import java.util.Optional;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 
+/**
+ * Buffers confirms, and marks acknowledged ThingEvents as published with one bulk update per batch.
+ */
 public class ThingEventConfirmCallback implements ConfirmCallback {
 
     private static final Logger logger = LoggerFactory.getLogger(ThingEventConfirmCallback.class);
-    private final ThingEventRepository thingEventRepository;
+    private final ThingEventOutbox thingEventOutbox;
+    private final InFlightWindow inFlightWindow;
+    private final int batchSize;
+    private final Duration flushInterval;
+    private final Counter ackCounter;
+    private final Counter nackCounter;
+    private final Counter unroutableCounter;
+    private List<Long> ackedEventIds = new ArrayList<>();
+    private Instant bufferStartedInstant;
     private CountDownLatch countDownLatch;
 
-    public ThingEventConfirmCallback(ThingEventRepository thingEventRepository) {
-        this.thingEventRepository = thingEventRepository;
+    public ThingEventConfirmCallback(ThingEventOutbox thingEventOutbox, InFlightWindow inFlightWindow,
+                                     MeterRegistry meterRegistry, int batchSize, Duration flushInterval) {
+        this.thingEventOutbox = thingEventOutbox;
+        this.inFlightWindow = inFlightWindow;
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        this.ackCounter = Counter.builder("publisher.confirms")
+                .description("ThingEvents confirmed by the broker")
+                .tag("result", "ack")
+                .register(meterRegistry);
+        this.nackCounter = Counter.builder("publisher.confirms")
+                .description("ThingEvents confirmed by the broker")
+                .tag("result", "nack")
+                .register(meterRegistry);
+        this.unroutableCounter = Counter.builder("publisher.confirms")
+                .description("ThingEvents confirmed by the broker")
+                .tag("result", "unroutable")
+                .register(meterRegistry);
     }
 
     @Override
@@ -27,25 +58,95 @@ public class ThingEventConfirmCallback implements ConfirmCallback {
             throw new IllegalStateException("Can't confirm event with null CorrelationData");
         }
 
-        logger.info(String.format("ThingEvent publish confirmed: %s %s", correlationData, ack));
+        logger.debug(String.format("ThingEvent publish confirmed: %s %s", correlationData, ack));
 
-        Long eventId = Long.valueOf(correlationData.getId());
-        Optional<ThingEvent> optionalThingEvent = thingEventRepository.findById(eventId);
+        List<Long> eventIds = correlationData instanceof ThingEventBatchCorrelationData
+                ? ((ThingEventBatchCorrelationData) correlationData).getEventIds()
+                : List.of(Long.valueOf(correlationData.getId()));
 
-        if (optionalThingEvent.isEmpty()) {
-            throw new IllegalStateException(String.format("Can't find ThingEvent with id: %d", eventId));
+        if (!ack) {
+            nackCounter.increment(eventIds.size());
+            logger.warn(String.format("ThingEvents %s were nacked, they will be retried: %s", eventIds, cause));
+            eventIds.forEach(inFlightWindow::release);
+            countDown(eventIds.size());
+            return;
         }
 
-        ThingEvent thingEvent = optionalThingEvent.get();
-        thingEvent.setPublishedInstant(Instant.now());
-        thingEventRepository.save(thingEvent);
+        if (correlationData.getReturned() != null) {
+            unroutableCounter.increment(eventIds.size());
+            logger.error(String.format("ThingEvents %s couldn't be routed to a partition queue, they will be " +
+                    "retried; does publisher.partitions.count match consumer.partitions.count? %s", eventIds,
+                    correlationData.getReturned().getReplyText()));
+            eventIds.forEach(inFlightWindow::release);
+            countDown(eventIds.size());
+            return;
+        }
 
-        if (countDownLatch != null) {
-            countDownLatch.countDown();
+        ackCounter.increment(eventIds.size());
+
+        List<Long> batch = null;
+        synchronized (this) {
+            if (ackedEventIds.isEmpty()) {
+                bufferStartedInstant = Instant.now();
+            }
+            ackedEventIds.addAll(eventIds);
+
+            if (ackedEventIds.size() >= batchSize
+                    || Duration.between(bufferStartedInstant, Instant.now()).compareTo(flushInterval) >= 0) {
+                batch = swapBuffer();
+            }
+        }
+
+        if (batch != null) {
+            markPublished(batch);
         }
     }
 
+    @Scheduled(fixedDelayString = "${publisher.confirm.flush-interval-ms:100}")
+    public void flush() {
+        List<Long> batch;
+        synchronized (this) {
+            if (ackedEventIds.isEmpty()) {
+                return;
+            }
+            batch = swapBuffer();
+        }
+
+        markPublished(batch);
+    }
+
     public void setCountDownLatch(CountDownLatch countDownLatch) {
         this.countDownLatch = countDownLatch;
     }
+
+    private List<Long> swapBuffer() {
+        List<Long> batch = ackedEventIds;
+        ackedEventIds = new ArrayList<>(batchSize);
+        bufferStartedInstant = null;
+        return batch;
+    }
+
+    private void markPublished(List<Long> eventIds) {
+        try {
+            int updated = thingEventOutbox.markPublished(eventIds, Instant.now());
+            logger.info(String.format("Marked %d of %d confirmed ThingEvents as published", updated,
+                    eventIds.size()));
+        } catch (RuntimeException e) {
+            logger.error("Exception caught marking confirmed ThingEvents as published, they will be republished: ", e);
+        } finally {
+            eventIds.forEach(inFlightWindow::release);
+        }
+
+        countDown(eventIds.size());
+    }
+
+    private void countDown(int count) {
+        if (countDownLatch == null) {
+            return;
+        }
+
+        for (int i = 0; i < count; i++) {
+            countDownLatch.countDown();
+        }
+    }
 }
@@ -0,0 +1,90 @@
+package dev.samsanders.demo.rabbitmq.publisher.app;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionBlockedEvent;
+import org.springframework.amqp.rabbit.connection.ConnectionUnblockedEvent;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.context.event.EventListener;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records confirm latencies, and feeds the outcome of each confirm back to the {@link InFlightWindow}.
+ */
+public class ThingEventConfirmTracker {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThingEventConfirmTracker.class);
+
+    private final InFlightWindow inFlightWindow;
+    private final Timer confirmLatency;
+    private final Timer eventPublishLatency;
+    private final Timer eventConfirmLatency;
+
+    public ThingEventConfirmTracker(InFlightWindow inFlightWindow, MeterRegistry meterRegistry) {
+        this.inFlightWindow = inFlightWindow;
+        this.confirmLatency = Timer.builder("publisher.confirm.latency")
+                .description("Time from publishing a message to the broker confirming it")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.eventPublishLatency = Timer.builder("publisher.event.publish.latency")
+                .description("Time from a ThingEvent being created to it being published")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.eventConfirmLatency = Timer.builder("publisher.event.confirm.latency")
+                .description("Time from a ThingEvent being created to the broker confirming it")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+
+        Gauge.builder("publisher.in.flight", inFlightWindow, InFlightWindow::size)
+                .description("ThingEvents published but not yet confirmed")
+                .register(meterRegistry);
+        Gauge.builder("publisher.in.flight.limit", inFlightWindow, InFlightWindow::getLimit)
+                .description("Current limit on ThingEvents published but not yet confirmed")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @param createdInstants when each of the ThingEvents in the message was created
+     */
+    public <T extends CorrelationData> T track(T correlationData, List<Instant> createdInstants) {
+        long publishedNanos = System.nanoTime();
+        Instant publishedInstant = Instant.now();
+        createdInstants.forEach(createdInstant ->
+                eventPublishLatency.record(Duration.between(createdInstant, publishedInstant)));
+
+        correlationData.getFuture().addCallback(
+                confirm -> {
+                    confirmLatency.record(System.nanoTime() - publishedNanos, TimeUnit.NANOSECONDS);
+                    boolean ack = confirm != null && confirm.isAck();
+                    if (ack) {
+                        Instant confirmedInstant = Instant.now();
+                        createdInstants.forEach(createdInstant ->
+                                eventConfirmLatency.record(Duration.between(createdInstant, confirmedInstant)));
+                    }
+                    inFlightWindow.confirmed(ack, createdInstants.size());
+                },
+                failure -> logger.debug(String.format("%s wasn't sent: %s", correlationData, failure.getMessage())));
+
+        return correlationData;
+    }
+
+    @EventListener
+    public void connectionBlocked(ConnectionBlockedEvent event) {
+        logger.warn(String.format("Broker blocked the connection, pausing publishes: %s", event.getReason()));
+        inFlightWindow.setBlocked(true);
+    }
+
+    @EventListener
+    public void connectionUnblocked(ConnectionUnblockedEvent event) {
+        logger.info("Broker unblocked the connection, resuming publishes");
+        inFlightWindow.setBlocked(false);
+    }
+
+}
@@ -0,0 +1,50 @@
+package dev.samsanders.demo.rabbitmq.publisher.app;
+
+import dev.samsanders.demo.rabbitmq.publisher.thing.ThingEvent;
+import dev.samsanders.demo.rabbitmq.publisher.thing.ThingEventOutbox;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+
+import java.util.List;
+
+/**
+ * Exposes how many ThingEvents are waiting to be published, and the oldest of them, at {@code /actuator/outbox}.
+ */
+@Endpoint(id = "outbox")
+public class ThingEventOutboxEndpoint {
+
+    private final ThingEventOutbox thingEventOutbox;
+    private final int defaultLimit;
+
+    public ThingEventOutboxEndpoint(ThingEventOutbox thingEventOutbox, int defaultLimit) {
+        this.thingEventOutbox = thingEventOutbox;
+        this.defaultLimit = defaultLimit;
+    }
+
+    @ReadOperation
+    public OutboxDescriptor outbox(@Nullable Integer limit) {
+        return new OutboxDescriptor(thingEventOutbox.countUnpublished(),
+                thingEventOutbox.findOldestUnpublished(limit == null ? defaultLimit : limit));
+    }
+
+    public static final class OutboxDescriptor {
+
+        private final long pending;
+        private final List<ThingEvent> oldest;
+
+        private OutboxDescriptor(long pending, List<ThingEvent> oldest) {
+            this.pending = pending;
+            this.oldest = oldest;
+        }
+
+        public long getPending() {
+            return pending;
+        }
+
+        public List<ThingEvent> getOldest() {
+            return oldest;
+        }
+    }
+
+}
@@ -0,0 +1,33 @@
+package dev.samsanders.demo.rabbitmq.publisher.app;
+
+/**
+ * Jump consistent hash, so adding a partition moves only the Things that land on the new one.
+ */
+public class ThingEventPartitioner {
+
+    private final int partitions;
+
+    public ThingEventPartitioner(int partitions) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("Partitions must be at least 1: " + partitions);
+        }
+        this.partitions = partitions;
+    }
+
+    public String routingKey(long thingId) {
+        return String.valueOf(partition(thingId));
+    }
+
+    int partition(long thingId) {
+        long key = thingId * 0x9E3779B97F4A7C15L;
+        long bucket = -1;
+        long next = 0;
+        while (next < partitions) {
+            bucket = next;
+            key = key * 2862933555777941757L + 1;
+            next = (long) ((bucket + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) bucket;
+    }
+
+}
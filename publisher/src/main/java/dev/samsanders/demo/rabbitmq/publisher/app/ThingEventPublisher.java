@@ -2,54 +2,272 @@ package dev.samsanders.demo.rabbitmq.publisher.app;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import dev.samsanders.demo.rabbitmq.publisher.app.InFlightWindow.Acquisition;
 import dev.samsanders.demo.rabbitmq.publisher.thing.ThingEvent;
-import dev.samsanders.demo.rabbitmq.publisher.thing.ThingEventRepository;
+import dev.samsanders.demo.rabbitmq.publisher.thing.ThingEventOutbox;
+import dev.samsanders.demo.rabbitmq.publisher.thing.ThingEventOutbox.ClaimedPage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
 import org.springframework.amqp.rabbit.connection.CorrelationData;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
 import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.net.URI;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class ThingEventPublisher {
 
     private static final Logger logger = LoggerFactory.getLogger(ThingEventPublisher.class);
 
     private final RabbitTemplate rabbitTemplate;
-    private final ThingEventRepository thingEventRepository;
+    private final ThingEventOutbox thingEventOutbox;
     private final String baseUrl;
+    private final InFlightWindow inFlightWindow;
+    private final int pageSize;
+    private final Duration windowTimeout;
+    private final boolean dispatchAfterCommit;
+    private final ThingEventCodec thingEventCodec;
+    private final ThingEventBatcher thingEventBatcher;
+    private final ThingEventConfirmTracker thingEventConfirmTracker;
+    private final ThingEventPartitioner thingEventPartitioner;
+    private final Object committedThingEventsKey = new Object();
+    private final ExecutorService afterCommitExecutorService;
 
     public ThingEventPublisher(RabbitTemplate rabbitTemplate,
-                               ThingEventRepository thingEventRepository,
-                               String baseUrl) {
+                               ThingEventOutbox thingEventOutbox,
+                               String baseUrl,
+                               InFlightWindow inFlightWindow,
+                               int pageSize,
+                               Duration windowTimeout,
+                               boolean dispatchAfterCommit,
+                               int afterCommitQueueCapacity,
+                               WireFormat wireFormat,
+                               ThingEventBatcher thingEventBatcher,
+                               ThingEventConfirmTracker thingEventConfirmTracker,
+                               ThingEventPartitioner thingEventPartitioner) {
         this.rabbitTemplate = rabbitTemplate;
-        this.thingEventRepository = thingEventRepository;
+        this.thingEventOutbox = thingEventOutbox;
         this.baseUrl = baseUrl;
+        this.inFlightWindow = inFlightWindow;
+        this.pageSize = pageSize;
+        this.windowTimeout = windowTimeout;
+        this.dispatchAfterCommit = dispatchAfterCommit;
+        this.thingEventCodec = wireFormat == WireFormat.BINARY ? new ThingEventCodec(baseUrl) : null;
+        this.thingEventBatcher = thingEventBatcher;
+        this.thingEventConfirmTracker = thingEventConfirmTracker;
+        this.thingEventPartitioner = thingEventPartitioner;
+        this.afterCommitExecutorService = dispatchAfterCommit
+                ? new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(afterCommitQueueCapacity), ThingEventPublisher::leaveForTheRelay)
+                : null;
     }
 
     @EventListener(ThingEvent.class)
     public void saveThingEvent(ThingEvent thingEvent) {
-        thingEventRepository.save(thingEvent);
+        thingEventOutbox.append(thingEvent);
+
+        if (dispatchAfterCommit && TransactionSynchronizationManager.isSynchronizationActive()) {
+            committedThingEvents().add(thingEvent);
+        }
     }
 
+    /**
+     * Collects the transaction's ThingEvents, to publish them a page at a time as soon as it commits.
+     */
+    @SuppressWarnings("unchecked")
+    private List<ThingEvent> committedThingEvents() {
+        List<ThingEvent> committedThingEvents =
+                (List<ThingEvent>) TransactionSynchronizationManager.getResource(committedThingEventsKey);
+        if (committedThingEvents != null) {
+            return committedThingEvents;
+        }
+
+        List<ThingEvent> thingEvents = new ArrayList<>();
+        TransactionSynchronizationManager.bindResource(committedThingEventsKey, thingEvents);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public int getOrder() {
+                return Ordered.LOWEST_PRECEDENCE;
+            }
+
+            @Override
+            public void afterCommit() {
+                afterCommitExecutorService.execute(() -> publishCommittedThingEvents(thingEvents));
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(committedThingEventsKey);
+            }
+        });
+        return thingEvents;
+    }
+
+    /**
+     * Best effort, off the committing thread: anything not published here stays in the outbox for the relay.
+     */
+    private void publishCommittedThingEvents(List<ThingEvent> thingEvents) {
+        try {
+            for (int from = 0; from < thingEvents.size(); from += pageSize) {
+                List<ThingEvent> page = thingEvents.subList(from, Math.min(from + pageSize, thingEvents.size()));
+
+                for (ThingEvent claimedEvent : thingEventOutbox.claim(page)) {
+                    Acquisition acquisition = inFlightWindow.tryAcquire(claimedEvent.getId(), Duration.ZERO);
+                    if (acquisition == Acquisition.FULL) {
+                        return;
+                    }
+
+                    if (acquisition == Acquisition.ACQUIRED) {
+                        publish(claimedEvent);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            logger.warn(String.format("Couldn't publish %d ThingEvents after commit, leaving them for the relay: %s",
+                    thingEvents.size(), e.getMessage()));
+        }
+    }
+
+    private static void leaveForTheRelay(Runnable publishCommittedThingEvents, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            return;
+        }
+
+        logger.warn(String.format("%d transactions are already waiting to publish after commit, leaving this " +
+                "one's ThingEvents for the relay", executor.getQueue().size()));
+    }
+
+    /**
+     * Drains the outbox a page at a time, until the in-flight window stays full for the window timeout.
+     */
     @Scheduled(fixedRate = 2000L)
     public void publishAllUnpublishedThingEvents() {
-        logger.info("Getting all unpublished ThingEvents");
+        logger.info("Getting unpublished ThingEvents");
+
+        try {
+            publishClaimableThingEvents();
+        } finally {
+            flushBatch();
+        }
+    }
+
+    private void publishClaimableThingEvents() {
+        ThingEvent cursor = null;
+
+        while (true) {
+            ClaimedPage claimedPage = thingEventOutbox.claimNext(cursor, pageSize);
+
+            for (ThingEvent thingEvent : claimedPage.getClaimedEvents()) {
+                Acquisition acquisition = acquire(thingEvent);
+                if (acquisition == Acquisition.ALREADY_IN_FLIGHT) {
+                    continue;
+                }
+
+                if (acquisition == Acquisition.FULL) {
+                    logger.info(String.format("In-flight window is full (%d), resuming next cycle",
+                            inFlightWindow.size()));
+                    return;
+                }
 
-        Iterable<ThingEvent> unpublishedEvents = thingEventRepository
-                .findAllByPublishedInstantIsNullOrderByCreatedInstant();
+                publish(thingEvent);
+            }
 
-        unpublishedEvents.forEach(thingEvent -> {
+            if (claimedPage.isLast()) {
+                return;
+            }
+
+            cursor = claimedPage.getCursor();
+        }
+    }
+
+    /**
+     * The partial batch holds slots that are only freed once it's been sent and confirmed.
+     */
+    private Acquisition acquire(ThingEvent thingEvent) {
+        try {
+            if (thingEventBatcher != null) {
+                Acquisition acquisition = inFlightWindow.tryAcquire(thingEvent.getId(), Duration.ZERO);
+                if (acquisition != Acquisition.FULL) {
+                    return acquisition;
+                }
+                flushBatch();
+            }
+
+            return inFlightWindow.tryAcquire(thingEvent.getId(), windowTimeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Acquisition.FULL;
+        }
+    }
+
+    private void publish(ThingEvent thingEvent) {
+        Message message;
+        if (thingEventCodec != null) {
+            logger.debug(String.format("Publishing ThingEvent: %s", thingEvent));
+            message = thingEventCodec.toMessage(thingEvent);
+        } else {
             ThingEventDto thingEventDto = new ThingEventDto(thingEvent, baseUrl);
             logger.info(String.format("Publishing ThingEvent: %s", thingEventDto));
-            rabbitTemplate
-                    .convertAndSend(thingEventDto, (message) -> message,
-                            new CorrelationData(String.valueOf(thingEvent.getId()))
-                    );
-        });
+            message = rabbitTemplate.getMessageConverter().toMessage(thingEventDto, new MessageProperties());
+        }
+
+        String routingKey = thingEventPartitioner == null
+                ? rabbitTemplate.getRoutingKey()
+                : thingEventPartitioner.routingKey(thingEvent.getThingId());
+
+        if (thingEventBatcher != null) {
+            thingEventBatcher.add(thingEvent, message, routingKey);
+            return;
+        }
+
+        CorrelationData correlationData = thingEventConfirmTracker.track(
+                new CorrelationData(String.valueOf(thingEvent.getId())), List.of(thingEvent.getCreatedInstant()));
+        try {
+            rabbitTemplate.send(rabbitTemplate.getExchange(), routingKey, message, correlationData);
+        } catch (AmqpException e) {
+            correlationData.getFuture().setException(e);
+            inFlightWindow.release(thingEvent.getId());
+            throw e;
+        }
+    }
+
+    private void flushBatch() {
+        if (thingEventBatcher == null) {
+            return;
+        }
+
+        try {
+            thingEventBatcher.flush();
+        } catch (AmqpException e) {
+            logger.warn(String.format("Couldn't publish batch of ThingEvents, they will be retried: %s",
+                    e.getMessage()));
+        }
+    }
+
+    public void shutdown() {
+        if (afterCommitExecutorService != null) {
+            afterCommitExecutorService.shutdownNow();
+        }
+    }
+
+    public enum WireFormat {
+        JSON, BINARY
     }
 
     private static class ThingEventDto {
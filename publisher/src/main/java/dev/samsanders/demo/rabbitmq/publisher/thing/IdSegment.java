@@ -0,0 +1,55 @@
+package dev.samsanders.demo.rabbitmq.publisher.thing;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import java.util.Objects;
+
+@Entity
+public class IdSegment {
+
+    @Id
+    private String name;
+    private long nextValue;
+
+    public IdSegment() {
+    }
+
+    public IdSegment(String name, long nextValue) {
+        this.name = name;
+        this.nextValue = nextValue;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getNextValue() {
+        return nextValue;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof IdSegment)) {
+            return false;
+        }
+        IdSegment idSegment = (IdSegment) o;
+        return nextValue == idSegment.nextValue &&
+                Objects.equals(name, idSegment.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, nextValue);
+    }
+
+    @Override
+    public String toString() {
+        return "IdSegment{" +
+                "name='" + name + '\'' +
+                ", nextValue=" + nextValue +
+                '}';
+    }
+}
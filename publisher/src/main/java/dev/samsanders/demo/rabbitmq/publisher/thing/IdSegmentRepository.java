@@ -0,0 +1,14 @@
+package dev.samsanders.demo.rabbitmq.publisher.thing;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+
+public interface IdSegmentRepository extends CrudRepository<IdSegment, String> {
+
+    @Modifying
+    @Query("update IdSegment s set s.nextValue = s.nextValue + :blockSize where s.name = :name")
+    int advance(@Param("name") String name, @Param("blockSize") long blockSize);
+
+}
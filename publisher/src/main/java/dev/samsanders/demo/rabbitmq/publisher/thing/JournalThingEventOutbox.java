@@ -0,0 +1,357 @@
+package dev.samsanders.demo.rabbitmq.publisher.thing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.Ordered;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Single-node journal outbox, forced before the database commits; a rollback marks its records published.
+ */
+public class JournalThingEventOutbox implements ThingEventOutbox, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(JournalThingEventOutbox.class);
+    private static final int RECORD_SIZE = 16;
+    private static final String SEGMENT_SUFFIX = ".segment";
+
+    private final Path directory;
+    private final int segmentRecords;
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final Set<Long> confirmedAheadOfCursor = new ConcurrentSkipListSet<>();
+    private final FileChannel cursorChannel;
+    private final MappedByteBuffer cursorBuffer;
+    private final Object appendLock = new Object();
+    private final Object forceLock = new Object();
+    private final Object cursorLock = new Object();
+    private final Object pendingThingEventsKey = new Object();
+    private volatile long nextId;
+    private volatile long durableId;
+    private volatile long cursor;
+
+    public JournalThingEventOutbox(Path directory, int segmentRecords) throws IOException {
+        this.directory = directory;
+        this.segmentRecords = segmentRecords;
+
+        Files.createDirectories(directory);
+        this.cursorChannel = FileChannel.open(directory.resolve("cursor"), CREATE, READ, WRITE);
+        this.cursorBuffer = cursorChannel.map(FileChannel.MapMode.READ_WRITE, 0, Long.BYTES);
+        this.cursor = Math.max(1, cursorBuffer.getLong(0));
+
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.filter(file -> file.toString().endsWith(SEGMENT_SUFFIX))
+                    .collect(Collectors.toList())) {
+                String name = file.getFileName().toString();
+                long firstId = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                segments.put(firstId, new Segment(file, firstId));
+            }
+        }
+
+        this.nextId = Math.max(cursor, recoverNextId());
+        this.durableId = nextId;
+        logger.info(String.format("Opened ThingEvent journal %s: cursor %d, next id %d", directory, cursor, nextId));
+    }
+
+    @Override
+    public void append(ThingEvent thingEvent) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            write(List.of(thingEvent));
+            return;
+        }
+
+        pendingThingEvents().add(thingEvent);
+    }
+
+    @Override
+    public ClaimedPage claimNext(ThingEvent after, int pageSize) {
+        long end = durableId;
+        long id = after == null ? cursor : Math.max(cursor, after.getId() + 1);
+
+        List<ThingEvent> claimedEvents = new ArrayList<>();
+        ThingEvent last = after;
+        for (int scanned = 0; scanned < pageSize && id < end; scanned++, id++) {
+            ThingEvent thingEvent = read(id);
+            if (thingEvent == null) {
+                continue;
+            }
+
+            last = thingEvent;
+            if (!confirmedAheadOfCursor.contains(id)) {
+                claimedEvents.add(thingEvent);
+            }
+        }
+
+        return new ClaimedPage(claimedEvents, last, id >= end);
+    }
+
+    @Override
+    public List<ThingEvent> claim(List<ThingEvent> thingEvents) {
+        return thingEvents.stream()
+                .filter(thingEvent -> thingEvent.getId() >= cursor && thingEvent.getId() < durableId)
+                .filter(thingEvent -> !confirmedAheadOfCursor.contains(thingEvent.getId()))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public int markPublished(Collection<Long> ids, Instant publishedInstant) {
+        int marked = 0;
+        synchronized (cursorLock) {
+            for (long id : ids) {
+                if (id >= cursor && confirmedAheadOfCursor.add(id)) {
+                    marked++;
+                }
+            }
+        }
+
+        advanceCursor();
+        return marked;
+    }
+
+    @Override
+    public long countUnpublished() {
+        return Math.max(0, nextId - cursor - confirmedAheadOfCursor.size());
+    }
+
+    @Override
+    public List<ThingEvent> findOldestUnpublished(int limit) {
+        long end = durableId;
+        List<ThingEvent> thingEvents = new ArrayList<>();
+        for (long id = cursor; id < end && thingEvents.size() < limit; id++) {
+            ThingEvent thingEvent = read(id);
+            if (thingEvent != null && !confirmedAheadOfCursor.contains(id)) {
+                thingEvents.add(thingEvent);
+            }
+        }
+        return thingEvents;
+    }
+
+    public long getCursor() {
+        return cursor;
+    }
+
+    public long getNextId() {
+        return nextId;
+    }
+
+    @Override
+    public void close() throws IOException {
+        cursorChannel.close();
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<ThingEvent> pendingThingEvents() {
+        List<ThingEvent> pendingThingEvents =
+                (List<ThingEvent>) TransactionSynchronizationManager.getResource(pendingThingEventsKey);
+        if (pendingThingEvents != null) {
+            return pendingThingEvents;
+        }
+
+        List<ThingEvent> thingEvents = new ArrayList<>();
+        TransactionSynchronizationManager.bindResource(pendingThingEventsKey, thingEvents);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            private boolean written;
+
+            @Override
+            public int getOrder() {
+                return Ordered.HIGHEST_PRECEDENCE;
+            }
+
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                long lastId = put(thingEvents);
+                written = true;
+                force(lastId);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(pendingThingEventsKey);
+
+                if (written && status == STATUS_ROLLED_BACK) {
+                    markPublished(thingEvents.stream().map(ThingEvent::getId).collect(Collectors.toList()),
+                            Instant.now());
+                }
+            }
+        });
+        return thingEvents;
+    }
+
+    private void write(List<ThingEvent> thingEvents) {
+        force(put(thingEvents));
+    }
+
+    private long put(List<ThingEvent> thingEvents) {
+        synchronized (appendLock) {
+            long id = nextId;
+            for (ThingEvent thingEvent : thingEvents) {
+                segmentFor(id).put(id, thingEvent.getThingId(), toEpochNanos(thingEvent.getCreatedInstant()));
+                thingEvent.setId(id);
+                id++;
+            }
+            nextId = id;
+            return id - 1;
+        }
+    }
+
+    /**
+     * Group commit: one force covers every record appended while the previous one was running.
+     */
+    private void force(long id) {
+        synchronized (forceLock) {
+            if (durableId > id) {
+                return;
+            }
+
+            long end = nextId;
+            segments.subMap(firstIdOfSegment(durableId), true, firstIdOfSegment(end - 1), true)
+                    .values()
+                    .forEach(Segment::force);
+            durableId = end;
+        }
+    }
+
+    private void advanceCursor() {
+        synchronized (cursorLock) {
+            long advancedCursor = cursor;
+            while (confirmedAheadOfCursor.remove(advancedCursor)) {
+                advancedCursor++;
+            }
+            if (advancedCursor == cursor) {
+                return;
+            }
+
+            cursorBuffer.putLong(0, advancedCursor);
+            cursorBuffer.force();
+            cursor = advancedCursor;
+        }
+
+        deleteSegmentsBehindCursor();
+    }
+
+    private void deleteSegmentsBehindCursor() {
+        for (Segment segment : segments.values()) {
+            if (segment.firstId + segmentRecords > cursor) {
+                return;
+            }
+
+            segments.remove(segment.firstId);
+            try {
+                segment.close();
+                Files.deleteIfExists(segment.file);
+                logger.info(String.format("Deleted confirmed ThingEvent journal segment %s", segment.file));
+            } catch (IOException e) {
+                logger.warn(String.format("Couldn't delete ThingEvent journal segment %s: %s", segment.file,
+                        e.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * Returns {@code null} when the ThingEvent's segment has been deleted since the caller read the cursor.
+     */
+    private ThingEvent read(long id) {
+        Segment segment = segments.get(firstIdOfSegment(id));
+        if (segment == null) {
+            return null;
+        }
+
+        return new ThingEvent(id, segment.thingId(id), Instant.ofEpochSecond(0, segment.createdEpochNanos(id)));
+    }
+
+    private Segment segmentFor(long id) {
+        return segments.computeIfAbsent(firstIdOfSegment(id), firstId -> {
+            try {
+                return new Segment(directory.resolve(String.format("%020d%s", firstId, SEGMENT_SUFFIX)), firstId);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private long recoverNextId() {
+        if (segments.isEmpty()) {
+            return 1;
+        }
+
+        Segment lastSegment = segments.lastEntry().getValue();
+        long id = lastSegment.firstId;
+        while (id < lastSegment.firstId + segmentRecords && lastSegment.createdEpochNanos(id) != 0) {
+            id++;
+        }
+        return id;
+    }
+
+    private long firstIdOfSegment(long id) {
+        return ((id - 1) / segmentRecords) * segmentRecords + 1;
+    }
+
+    private static long toEpochNanos(Instant instant) {
+        return Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1_000_000_000L), instant.getNano());
+    }
+
+    private final class Segment {
+
+        private final Path file;
+        private final long firstId;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        private Segment(Path file, long firstId) throws IOException {
+            this.file = file;
+            this.firstId = firstId;
+            this.channel = FileChannel.open(file, CREATE, READ, WRITE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) segmentRecords * RECORD_SIZE);
+        }
+
+        private void put(long id, long thingId, long createdEpochNanos) {
+            int offset = offset(id);
+            buffer.putLong(offset, thingId);
+            buffer.putLong(offset + Long.BYTES, createdEpochNanos);
+        }
+
+        private long thingId(long id) {
+            return buffer.getLong(offset(id));
+        }
+
+        private long createdEpochNanos(long id) {
+            return buffer.getLong(offset(id) + Long.BYTES);
+        }
+
+        private void force() {
+            buffer.force();
+        }
+
+        private void close() throws IOException {
+            channel.close();
+        }
+
+        private int offset(long id) {
+            return (int) (id - firstId) * RECORD_SIZE;
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+package dev.samsanders.demo.rabbitmq.publisher.thing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps ThingEvents in the thing_event table, leased a page at a time and coalesced per Thing before publishing.
+ */
+public class JpaThingEventOutbox implements ThingEventOutbox {
+
+    private static final Logger logger = LoggerFactory.getLogger(JpaThingEventOutbox.class);
+
+    private final ThingEventRepository thingEventRepository;
+    private final String nodeId;
+    private final Duration leaseDuration;
+
+    public JpaThingEventOutbox(ThingEventRepository thingEventRepository, String nodeId, Duration leaseDuration) {
+        this.thingEventRepository = thingEventRepository;
+        this.nodeId = nodeId;
+        this.leaseDuration = leaseDuration;
+    }
+
+    @Override
+    public void append(ThingEvent thingEvent) {
+        thingEventRepository.save(thingEvent);
+    }
+
+    /**
+     * Pages with a keyset cursor on (createdInstant, id), so that only one page of ThingEvents is ever held in memory.
+     */
+    @Override
+    public ClaimedPage claimNext(ThingEvent after, int pageSize) {
+        Pageable page = PageRequest.of(0, pageSize);
+        List<ThingEvent> claimableEvents = after == null
+                ? thingEventRepository.findClaimable(nodeId, Instant.now(), page)
+                : thingEventRepository.findClaimableAfter(nodeId, Instant.now(), after.getCreatedInstant(),
+                after.getId(), page);
+
+        if (claimableEvents.isEmpty()) {
+            return new ClaimedPage(Collections.emptyList(), after, true);
+        }
+
+        return new ClaimedPage(coalesce(claim(claimableEvents)), claimableEvents.get(claimableEvents.size() - 1),
+                claimableEvents.size() < pageSize);
+    }
+
+    @Override
+    public List<ThingEvent> claim(List<ThingEvent> claimableEvents) {
+        List<Long> ids = claimableEvents.stream().map(ThingEvent::getId).collect(Collectors.toList());
+        Instant now = Instant.now();
+
+        int claimed = thingEventRepository.claim(ids, nodeId, now, now.plus(leaseDuration));
+        if (claimed == 0) {
+            return Collections.emptyList();
+        }
+
+        return thingEventRepository.findByIdInAndLeaseOwnerAndPublishedInstantIsNullOrderByCreatedInstantAscIdAsc(ids,
+                nodeId);
+    }
+
+    @Override
+    public int markPublished(Collection<Long> ids, Instant publishedInstant) {
+        return thingEventRepository.markPublished(ids, publishedInstant);
+    }
+
+    @Override
+    public long countUnpublished() {
+        return thingEventRepository.countByPublishedInstantIsNull();
+    }
+
+    @Override
+    public List<ThingEvent> findOldestUnpublished(int limit) {
+        return thingEventRepository.findByPublishedInstantIsNullOrderByCreatedInstantAscIdAsc(PageRequest.of(0, limit));
+    }
+
+    private List<ThingEvent> coalesce(List<ThingEvent> claimedEvents) {
+        if (claimedEvents.isEmpty()) {
+            return claimedEvents;
+        }
+
+        Set<Long> thingIds = claimedEvents.stream().map(ThingEvent::getThingId).collect(Collectors.toSet());
+        Map<Long, ThingEvent> claimedEventsById = claimedEvents.stream()
+                .collect(Collectors.toMap(ThingEvent::getId, Function.identity()));
+        List<ThingEvent> latestEvents = thingEventRepository.findLatestUnpublishedByThingIdIn(thingIds);
+
+        List<Long> supersedingEventIds = latestEvents.stream()
+                .filter(latestEvent -> claimedEvents.stream().anyMatch(claimedEvent ->
+                        claimedEvent.getThingId() == latestEvent.getThingId()
+                                && claimedEvent.getId() != latestEvent.getId()))
+                .map(ThingEvent::getId)
+                .collect(Collectors.toList());
+        if (!supersedingEventIds.isEmpty()) {
+            int coalesced = thingEventRepository.coalesceInto(supersedingEventIds, Instant.now());
+            logger.info(String.format("Coalesced %d superseded ThingEvents", coalesced));
+        }
+
+        List<ThingEvent> eventsToPublish = new ArrayList<>();
+        List<ThingEvent> unclaimedLatestEvents = new ArrayList<>();
+        latestEvents.forEach(latestEvent -> {
+            ThingEvent claimedEvent = claimedEventsById.get(latestEvent.getId());
+            if (claimedEvent != null) {
+                eventsToPublish.add(claimedEvent);
+            } else {
+                unclaimedLatestEvents.add(latestEvent);
+            }
+        });
+        if (!unclaimedLatestEvents.isEmpty()) {
+            eventsToPublish.addAll(claim(unclaimedLatestEvents));
+        }
+
+        eventsToPublish.sort(Comparator.comparing(ThingEvent::getCreatedInstant).thenComparingLong(ThingEvent::getId));
+        return eventsToPublish;
+    }
+
+}
@@ -1,29 +1,38 @@
 package dev.samsanders.demo.rabbitmq.publisher.thing;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.springframework.data.domain.AbstractAggregateRoot;
 
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Version;
+import java.time.Instant;
 import java.util.Objects;
-import java.util.concurrent.atomic.AtomicInteger;
 
 @Entity
 public class Thing extends AbstractAggregateRoot<Thing> {
 
-    private static final AtomicInteger idGenerator = new AtomicInteger(1);
-
     @Id
     private long id;
     private String content;
+    @Version
+    private Long version;
+    private Instant lastModifiedInstant;
 
     public Thing() {
     }
 
     @JsonCreator
     public Thing(@JsonProperty("content") String content) {
-        this.id = idGenerator.getAndIncrement();
+        this.content = content;
+    }
+
+    public Thing(long id, String content) {
+        this.id = id;
         this.content = content;
         this.registerEvent(new ThingEvent(this.getId()));
     }
@@ -36,6 +45,22 @@ public class Thing extends AbstractAggregateRoot<Thing> {
         return content;
     }
 
+    @JsonIgnore
+    public Long getVersion() {
+        return version;
+    }
+
+    @JsonIgnore
+    public Instant getLastModifiedInstant() {
+        return lastModifiedInstant;
+    }
+
+    @PrePersist
+    @PreUpdate
+    void touch() {
+        this.lastModifiedInstant = Instant.now();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
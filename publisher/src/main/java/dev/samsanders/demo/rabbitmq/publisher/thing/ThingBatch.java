@@ -0,0 +1,50 @@
+package dev.samsanders.demo.rabbitmq.publisher.thing;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+public class ThingBatch {
+
+    private final Map<Long, Thing> found;
+    private final List<Long> missing;
+
+    public ThingBatch(Map<Long, Thing> found, List<Long> missing) {
+        this.found = found;
+        this.missing = missing;
+    }
+
+    public Map<Long, Thing> getFound() {
+        return found;
+    }
+
+    public List<Long> getMissing() {
+        return missing;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ThingBatch)) {
+            return false;
+        }
+        ThingBatch that = (ThingBatch) o;
+        return Objects.equals(found, that.found) &&
+                Objects.equals(missing, that.missing);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(found, missing);
+    }
+
+    @Override
+    public String toString() {
+        return "ThingBatch{" +
+                "found=" + found +
+                ", missing=" + missing +
+                '}';
+    }
+}
@@ -1,52 +1,202 @@
 package dev.samsanders.demo.rabbitmq.publisher.thing;
 
+import dev.samsanders.demo.rabbitmq.publisher.thing.ThingResponseCache.CachedThing;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import java.net.URI;
-import java.util.ArrayList;
-import java.util.Collection;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/things")
 public class ThingController {
 
     private final ThingRepository thingRepository;
+    private final ThingIdAllocator thingIdAllocator;
+    private final ThingNdjsonWriter thingNdjsonWriter;
+    private final ThingResponseCache thingResponseCache;
+    private final int maxPageSize;
+    private final int maxBatchSize;
+    private final int maxCreateBatchSize;
 
-    ThingController(ThingRepository thingRepository) {
+    ThingController(ThingRepository thingRepository,
+                    ThingIdAllocator thingIdAllocator,
+                    ThingNdjsonWriter thingNdjsonWriter,
+                    ThingResponseCache thingResponseCache,
+                    @Value("${publisher.things.max-page-size:1000}") int maxPageSize,
+                    @Value("${publisher.things.max-batch-size:500}") int maxBatchSize,
+                    @Value("${publisher.things.max-create-batch-size:10000}") int maxCreateBatchSize) {
         this.thingRepository = thingRepository;
+        this.thingIdAllocator = thingIdAllocator;
+        this.thingNdjsonWriter = thingNdjsonWriter;
+        this.thingResponseCache = thingResponseCache;
+        this.maxPageSize = maxPageSize;
+        this.maxBatchSize = maxBatchSize;
+        this.maxCreateBatchSize = maxCreateBatchSize;
     }
 
     @PostMapping
     @Transactional
     public ResponseEntity<Void> create(@RequestBody Thing thing) {
-        thing = thingRepository.save(thing);
+        thing = thingRepository.save(new Thing(thingIdAllocator.nextId(), thing.getContent()));
         URI location = ServletUriComponentsBuilder.fromCurrentRequest().path("/{id}").buildAndExpand(thing.getId()).toUri();
         return ResponseEntity.created(location).build();
     }
 
+    /**
+     * Thing and ThingEvent ids are allocated without IDENTITY round trips, so the inserts go out in JDBC batches.
+     */
+    @PostMapping("/batch")
+    @Transactional
+    public ResponseEntity<List<URI>> createBatch(@RequestBody List<Thing> things) {
+        if (things.size() > maxCreateBatchSize) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        List<Thing> identifiedThings = things.stream()
+                .map(thing -> new Thing(thingIdAllocator.nextId(), thing.getContent()))
+                .collect(Collectors.toList());
+        thingRepository.saveAll(identifiedThings);
+
+        List<URI> locations = identifiedThings.stream()
+                .map(thing -> ServletUriComponentsBuilder.fromCurrentContextPath()
+                        .path("/things/{id}")
+                        .buildAndExpand(thing.getId())
+                        .toUri())
+                .collect(Collectors.toList());
+        return ResponseEntity.status(HttpStatus.CREATED).body(locations);
+    }
+
     @GetMapping
-    public ResponseEntity<Collection<Thing>> readAll() {
-        Iterable<Thing> all = thingRepository.findAll();
+    public ResponseEntity<List<Thing>> readAll(@RequestParam(defaultValue = "0") long after,
+                                               @RequestParam(defaultValue = "100") int limit) {
+        int pageSize = Math.max(1, Math.min(limit, maxPageSize));
+        List<Thing> things = thingRepository.findByIdGreaterThanOrderById(after, PageRequest.of(0, pageSize));
+
+        if (things.size() < pageSize) {
+            return ResponseEntity.ok(things);
+        }
+
+        URI next = ServletUriComponentsBuilder.fromCurrentRequest()
+                .replaceQueryParam("after", things.get(things.size() - 1).getId())
+                .replaceQueryParam("limit", pageSize)
+                .build()
+                .toUri();
+        return ResponseEntity.ok()
+                .header(HttpHeaders.LINK, String.format("<%s>; rel=\"next\"", next))
+                .body(things);
+    }
+
+    @GetMapping(produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAll(@RequestParam(defaultValue = "0") long after) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(outputStream -> thingNdjsonWriter.write(after, outputStream));
+    }
 
-        ArrayList<Thing> things = new ArrayList<>();
-        all.forEach(things::add);
+    @GetMapping(params = "ids")
+    public ResponseEntity<ThingBatch> readBatch(@RequestParam List<Long> ids) {
+        Set<Long> distinctIds = new LinkedHashSet<>(ids);
+
+        if (distinctIds.size() > maxBatchSize) {
+            return ResponseEntity.badRequest().build();
+        }
 
-        return ResponseEntity.ok(things);
+        Map<Long, Thing> thingsById = new LinkedHashMap<>();
+        thingRepository.findAllById(distinctIds).forEach(thing -> thingsById.put(thing.getId(), thing));
+
+        Map<Long, Thing> found = new LinkedHashMap<>();
+        distinctIds.stream()
+                .filter(thingsById::containsKey)
+                .forEach(id -> found.put(id, thingsById.get(id)));
+        List<Long> missing = distinctIds.stream()
+                .filter(id -> !thingsById.containsKey(id))
+                .collect(Collectors.toList());
+
+        return ResponseEntity.ok(new ThingBatch(found, missing));
     }
 
+    /**
+     * Answers conditional requests from the Thing's version alone, and serves the rest from the cache.
+     */
     @GetMapping("/{id}")
-    public ResponseEntity<Thing> read(@PathVariable Long id) {
-        Optional<Thing> optionalThing = thingRepository.findById(id);
+    public ResponseEntity<byte[]> read(@PathVariable Long id, @RequestHeader HttpHeaders requestHeaders) {
+        boolean conditional = isConditional(requestHeaders);
 
-        if (optionalThing.isEmpty()) {
+        if (conditional && thingResponseCache.getIfPresent(id).isEmpty()) {
+            Optional<ThingVersion> optionalThingVersion = thingRepository.findVersionById(id);
+
+            if (optionalThingVersion.isPresent() && isNotModified(requestHeaders, optionalThingVersion.get())) {
+                return notModified(optionalThingVersion.get());
+            }
+        }
+
+        Optional<CachedThing> optionalCachedThing = thingResponseCache.get(id);
+
+        if (optionalCachedThing.isEmpty()) {
             return ResponseEntity.notFound().build();
         }
 
-        return ResponseEntity.ok(optionalThing.get());
+        CachedThing cachedThing = optionalCachedThing.get();
+        if (conditional && isNotModified(requestHeaders, cachedThing)) {
+            return notModified(cachedThing);
+        }
+
+        return withValidators(ResponseEntity.ok(), cachedThing)
+                .contentType(new MediaType(MediaType.APPLICATION_JSON, StandardCharsets.UTF_8))
+                .body(cachedThing.getJson());
+    }
+
+    private static boolean isConditional(HttpHeaders requestHeaders) {
+        return requestHeaders.containsKey(HttpHeaders.IF_NONE_MATCH)
+                || requestHeaders.containsKey(HttpHeaders.IF_MODIFIED_SINCE);
+    }
+
+    private static boolean isNotModified(HttpHeaders requestHeaders, ThingVersion thingVersion) {
+        List<String> ifNoneMatch = requestHeaders.getIfNoneMatch();
+        if (!ifNoneMatch.isEmpty()) {
+            String eTag = eTag(thingVersion.getVersion());
+            return ifNoneMatch.stream()
+                    .anyMatch(candidate -> candidate.equals("*") || candidate.replaceFirst("^W/", "").equals(eTag));
+        }
+
+        long ifModifiedSince = requestHeaders.getIfModifiedSince();
+        Instant lastModifiedInstant = thingVersion.getLastModifiedInstant();
+        return ifModifiedSince >= 0 && lastModifiedInstant != null
+                && lastModifiedInstant.getEpochSecond() <= ifModifiedSince / 1000;
+    }
+
+    private static ResponseEntity<byte[]> notModified(ThingVersion thingVersion) {
+        return withValidators(ResponseEntity.status(HttpStatus.NOT_MODIFIED), thingVersion).build();
+    }
+
+    private static ResponseEntity.BodyBuilder withValidators(ResponseEntity.BodyBuilder bodyBuilder,
+                                                             ThingVersion thingVersion) {
+        bodyBuilder.eTag(eTag(thingVersion.getVersion()));
+        if (thingVersion.getLastModifiedInstant() != null) {
+            bodyBuilder.lastModified(thingVersion.getLastModifiedInstant());
+        }
+        return bodyBuilder;
+    }
+
+    private static String eTag(Long version) {
+        return String.format("\"%d\"", version == null ? 0L : version);
     }
 
 }
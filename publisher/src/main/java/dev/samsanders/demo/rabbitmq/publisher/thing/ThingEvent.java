@@ -4,18 +4,32 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
 import java.time.Instant;
 import java.util.Objects;
 
+/**
+ * H2 has no partial indexes, so thing_event_pending leads with publishedInstant to keep unpublished events together.
+ */
 @Entity
+@Table(indexes = {
+        @Index(name = "thing_event_pending", columnList = "publishedInstant, createdInstant, id"),
+        @Index(name = "thing_event_pending_by_thing", columnList = "thingId, publishedInstant, createdInstant"),
+        @Index(name = "thing_event_feed", columnList = "createdInstant, id")
+})
 public class ThingEvent {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "thing_event_id")
+    @SequenceGenerator(name = "thing_event_id", sequenceName = "thing_event_id_seq", allocationSize = 500)
     private long id;
     private long thingId;
     private Instant createdInstant;
     private Instant publishedInstant;
+    private String leaseOwner;
+    private Instant leaseExpiryInstant;
 
     public ThingEvent() {
     }
@@ -25,10 +39,20 @@ public class ThingEvent {
         this.createdInstant = Instant.now();
     }
 
+    ThingEvent(long id, long thingId, Instant createdInstant) {
+        this.id = id;
+        this.thingId = thingId;
+        this.createdInstant = createdInstant;
+    }
+
     public long getId() {
         return id;
     }
 
+    void setId(long id) {
+        this.id = id;
+    }
+
     public long getThingId() {
         return thingId;
     }
@@ -57,12 +81,14 @@ public class ThingEvent {
         return id == that.id &&
                 thingId == that.thingId &&
                 Objects.equals(createdInstant, that.createdInstant) &&
-                Objects.equals(publishedInstant, that.publishedInstant);
+                Objects.equals(publishedInstant, that.publishedInstant) &&
+                Objects.equals(leaseOwner, that.leaseOwner) &&
+                Objects.equals(leaseExpiryInstant, that.leaseExpiryInstant);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, thingId, createdInstant, publishedInstant);
+        return Objects.hash(id, thingId, createdInstant, publishedInstant, leaseOwner, leaseExpiryInstant);
     }
 
     @Override
@@ -72,6 +98,8 @@ public class ThingEvent {
                 ", thingId=" + thingId +
                 ", createdInstant=" + createdInstant +
                 ", publishedInstant=" + publishedInstant +
+                ", leaseOwner='" + leaseOwner + '\'' +
+                ", leaseExpiryInstant=" + leaseExpiryInstant +
                 '}';
     }
 }
@@ -0,0 +1,120 @@
+package dev.samsanders.demo.rabbitmq.publisher.thing;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * Keyed by (createdInstant, id), since pooled ids aren't ordered across nodes; assumes commits settle in settleWindow.
+ */
+@ConditionalOnProperty(name = "publisher.things.events.feed.enabled", matchIfMissing = true)
+@RestController
+@RequestMapping("/things/events")
+public class ThingEventController {
+
+    private final ThingEventRepository thingEventRepository;
+    private final String baseUrl;
+    private final int maxPageSize;
+    private final Duration settleWindow;
+    private final Duration retentionMaxAge;
+
+    public ThingEventController(ThingEventRepository thingEventRepository,
+                                @Value("${publisher.base-url}") String baseUrl,
+                                @Value("${publisher.things.events.max-page-size:1000}") int maxPageSize,
+                                @Value("${publisher.things.events.settle-window:5s}") Duration settleWindow,
+                                @Value("${publisher.retention.max-age:7d}") Duration retentionMaxAge) {
+        this.thingEventRepository = thingEventRepository;
+        this.baseUrl = baseUrl;
+        this.maxPageSize = maxPageSize;
+        this.settleWindow = settleWindow;
+        this.retentionMaxAge = retentionMaxAge;
+    }
+
+    /**
+     * Answers 410 Gone when the cursor may have been purged by retention, so the caller knows to resync.
+     */
+    @GetMapping
+    public ResponseEntity<List<ThingEventDto>> readAll(@RequestParam(defaultValue = "0") long after,
+                                                       @RequestParam(required = false) Instant afterCreatedInstant,
+                                                       @RequestParam(defaultValue = "100") int limit) {
+        int pageSize = Math.max(1, Math.min(limit, maxPageSize));
+        PageRequest page = PageRequest.of(0, pageSize);
+        Instant now = Instant.now();
+        Instant settledBefore = now.minus(settleWindow);
+
+        Optional<Instant> createdInstant = Optional.ofNullable(afterCreatedInstant);
+        if (after != 0) {
+            Optional<ThingEvent> cursor = thingEventRepository.findById(after);
+            if (cursor.isEmpty()) {
+                return ResponseEntity.status(HttpStatus.GONE).build();
+            }
+            createdInstant = createdInstant.or(() -> cursor.map(ThingEvent::getCreatedInstant));
+        }
+        if (createdInstant.isPresent() && createdInstant.get().isBefore(now.minus(retentionMaxAge))) {
+            return ResponseEntity.status(HttpStatus.GONE).build();
+        }
+
+        List<ThingEventDto> thingEvents = createdInstant
+                .map(instant -> thingEventRepository.findSettledAfter(settledBefore, instant, after, page))
+                .orElseGet(() -> thingEventRepository.findSettled(settledBefore, page))
+                .stream()
+                .map(thingEvent -> new ThingEventDto(thingEvent, baseUrl))
+                .collect(Collectors.toList());
+
+        if (thingEvents.size() < pageSize) {
+            return ResponseEntity.ok(thingEvents);
+        }
+
+        ThingEventDto last = thingEvents.get(thingEvents.size() - 1);
+        URI next = ServletUriComponentsBuilder.fromCurrentRequest()
+                .replaceQueryParam("after", last.getId())
+                .replaceQueryParam("afterCreatedInstant", last.getCreatedInstant())
+                .replaceQueryParam("limit", pageSize)
+                .build()
+                .toUri();
+        return ResponseEntity.ok()
+                .header(HttpHeaders.LINK, String.format("<%s>; rel=\"next\"", next))
+                .body(thingEvents);
+    }
+
+    static final class ThingEventDto {
+
+        private final long id;
+        private final URI thingUri;
+        private final Instant createdInstant;
+
+        private ThingEventDto(ThingEvent thingEvent, String baseUrl) {
+            this.id = thingEvent.getId();
+            this.thingUri = URI.create(String.format("%s/things/%d", baseUrl, thingEvent.getThingId()));
+            this.createdInstant = thingEvent.getCreatedInstant();
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public URI getThingUri() {
+            return thingUri;
+        }
+
+        public Instant getCreatedInstant() {
+            return createdInstant;
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+package dev.samsanders.demo.rabbitmq.publisher.thing;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Where ThingEvents wait until the broker has confirmed them.
+ */
+public interface ThingEventOutbox {
+
+    void append(ThingEvent thingEvent);
+
+    /**
+     * Claims the next page of unpublished ThingEvents after {@code after}, or from the oldest when it's null.
+     */
+    ClaimedPage claimNext(ThingEvent after, int pageSize);
+
+    /**
+     * Claims the given ThingEvents, skipping any published or claimed elsewhere since they were appended.
+     */
+    List<ThingEvent> claim(List<ThingEvent> thingEvents);
+
+    int markPublished(Collection<Long> ids, Instant publishedInstant);
+
+    long countUnpublished();
+
+    /**
+     * The {@code limit} oldest unpublished ThingEvents, whether or not they're claimed.
+     */
+    List<ThingEvent> findOldestUnpublished(int limit);
+
+    final class ClaimedPage {
+
+        private final List<ThingEvent> claimedEvents;
+        private final ThingEvent cursor;
+        private final boolean last;
+
+        public ClaimedPage(List<ThingEvent> claimedEvents, ThingEvent cursor, boolean last) {
+            this.claimedEvents = claimedEvents;
+            this.cursor = cursor;
+            this.last = last;
+        }
+
+        public List<ThingEvent> getClaimedEvents() {
+            return claimedEvents;
+        }
+
+        /**
+         * The last ThingEvent scanned for this page, to claim the next page after.
+         */
+        public ThingEvent getCursor() {
+            return cursor;
+        }
+
+        public boolean isLast() {
+            return last;
+        }
+    }
+}
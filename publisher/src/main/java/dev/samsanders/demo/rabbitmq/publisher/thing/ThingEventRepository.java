@@ -1,10 +1,103 @@
 package dev.samsanders.demo.rabbitmq.publisher.thing;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
 
 public interface ThingEventRepository extends CrudRepository<ThingEvent, Long> {
 
-    Iterable<ThingEvent> findAllByPublishedInstantIsNullOrderByCreatedInstant();
+    @Query("select e from ThingEvent e where e.publishedInstant is null " +
+            "and (e.leaseExpiryInstant is null or e.leaseExpiryInstant < :now or e.leaseOwner = :owner) " +
+            "order by e.createdInstant, e.id")
+    List<ThingEvent> findClaimable(@Param("owner") String owner,
+                                   @Param("now") Instant now,
+                                   Pageable pageable);
+
+    @Query("select e from ThingEvent e where e.publishedInstant is null " +
+            "and (e.leaseExpiryInstant is null or e.leaseExpiryInstant < :now or e.leaseOwner = :owner) " +
+            "and (e.createdInstant > :createdInstant or (e.createdInstant = :createdInstant and e.id > :id)) " +
+            "order by e.createdInstant, e.id")
+    List<ThingEvent> findClaimableAfter(@Param("owner") String owner,
+                                        @Param("now") Instant now,
+                                        @Param("createdInstant") Instant createdInstant,
+                                        @Param("id") long id,
+                                        Pageable pageable);
+
+    /**
+     * Runs in its own transaction so that it also commits when called from an after-commit listener.
+     */
+    @Modifying
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    @Query("update ThingEvent e set e.leaseOwner = :owner, e.leaseExpiryInstant = :leaseExpiryInstant " +
+            "where e.id in :ids and e.publishedInstant is null " +
+            "and (e.leaseExpiryInstant is null or e.leaseExpiryInstant < :now or e.leaseOwner = :owner)")
+    int claim(@Param("ids") Collection<Long> ids,
+              @Param("owner") String owner,
+              @Param("now") Instant now,
+              @Param("leaseExpiryInstant") Instant leaseExpiryInstant);
+
+    @Transactional(propagation = Propagation.REQUIRES_NEW, readOnly = true)
+    List<ThingEvent> findByIdInAndLeaseOwnerAndPublishedInstantIsNullOrderByCreatedInstantAscIdAsc(
+            Collection<Long> ids, String leaseOwner);
+
+    @Query("select e from ThingEvent e where e.thingId in :thingIds and e.publishedInstant is null " +
+            "and not exists (select n from ThingEvent n where n.thingId = e.thingId and n.publishedInstant is null " +
+            "and (n.createdInstant > e.createdInstant or (n.createdInstant = e.createdInstant and n.id > e.id)))")
+    List<ThingEvent> findLatestUnpublishedByThingIdIn(@Param("thingIds") Collection<Long> thingIds);
+
+    /**
+     * Marks the unpublished ThingEvents superseded by the given latest ones, for the same Thing, as published.
+     */
+    @Modifying
+    @Transactional
+    @Query("update ThingEvent e set e.publishedInstant = :publishedInstant " +
+            "where e.publishedInstant is null and e.id in (select s.id from ThingEvent s, ThingEvent l " +
+            "where l.id in :latestIds and s.thingId = l.thingId " +
+            "and (s.createdInstant < l.createdInstant or (s.createdInstant = l.createdInstant and s.id < l.id)))")
+    int coalesceInto(@Param("latestIds") Collection<Long> latestIds,
+                     @Param("publishedInstant") Instant publishedInstant);
+
+    @Modifying
+    @Transactional
+    @Query("update ThingEvent e set e.publishedInstant = :publishedInstant where e.id in :ids")
+    int markPublished(@Param("ids") Collection<Long> ids, @Param("publishedInstant") Instant publishedInstant);
+
+    @Query("select e from ThingEvent e where e.createdInstant < :settledBefore order by e.createdInstant, e.id")
+    List<ThingEvent> findSettled(@Param("settledBefore") Instant settledBefore, Pageable pageable);
+
+    @Query("select e from ThingEvent e where e.createdInstant < :settledBefore " +
+            "and (e.createdInstant > :createdInstant or (e.createdInstant = :createdInstant and e.id > :id)) " +
+            "order by e.createdInstant, e.id")
+    List<ThingEvent> findSettledAfter(@Param("settledBefore") Instant settledBefore,
+                                      @Param("createdInstant") Instant createdInstant,
+                                      @Param("id") long id,
+                                      Pageable pageable);
+
+    long countByPublishedInstantIsNull();
+
+    long countByPublishedInstantIsNotNull();
+
+    @Query("select e.id from ThingEvent e where e.publishedInstant < :publishedBefore " +
+            "order by e.publishedInstant, e.id")
+    List<Long> findIdsPublishedBefore(@Param("publishedBefore") Instant publishedBefore, Pageable pageable);
+
+    @Query("select e.id from ThingEvent e where e.publishedInstant is not null order by e.publishedInstant, e.id")
+    List<Long> findPublishedIds(Pageable pageable);
+
+    @Modifying
+    @Transactional
+    @Query("delete from ThingEvent e where e.id in :ids")
+    int purge(@Param("ids") Collection<Long> ids);
+
+    List<ThingEvent> findByPublishedInstantIsNullOrderByCreatedInstantAscIdAsc(Pageable pageable);
 
     Iterable<ThingEvent> findAllByThingId(long thingId);
 }
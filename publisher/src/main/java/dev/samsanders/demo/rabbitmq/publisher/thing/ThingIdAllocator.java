@@ -0,0 +1,7 @@
+package dev.samsanders.demo.rabbitmq.publisher.thing;
+
+public interface ThingIdAllocator {
+
+    long nextId();
+
+}
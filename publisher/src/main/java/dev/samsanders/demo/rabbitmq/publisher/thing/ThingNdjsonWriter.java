@@ -0,0 +1,65 @@
+package dev.samsanders.demo.rabbitmq.publisher.thing;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Streams Things from a forward-only JDBC cursor, so memory use doesn't grow with the table.
+ */
+public class ThingNdjsonWriter {
+
+    private static final String SELECT_THINGS_AFTER = "select id, content from thing where id > ? order by id";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final JsonFactory jsonFactory;
+    private final int fetchSize;
+
+    public ThingNdjsonWriter(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                             JsonFactory jsonFactory, int fetchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.jsonFactory = jsonFactory;
+        this.fetchSize = fetchSize;
+    }
+
+    public void write(long after, OutputStream outputStream) throws IOException {
+        try (JsonGenerator jsonGenerator = jsonFactory.createGenerator(outputStream)) {
+            jsonGenerator.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+            jsonGenerator.setRootValueSeparator(null);
+
+            RowCallbackHandler writeThing = resultSet -> writeThing(resultSet, jsonGenerator);
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.query(connection -> {
+                PreparedStatement preparedStatement = connection.prepareStatement(SELECT_THINGS_AFTER,
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                preparedStatement.setFetchSize(fetchSize);
+                preparedStatement.setLong(1, after);
+                return preparedStatement;
+            }, writeThing));
+        }
+    }
+
+    private void writeThing(ResultSet resultSet, JsonGenerator jsonGenerator) throws SQLException {
+        try {
+            jsonGenerator.writeStartObject();
+            jsonGenerator.writeNumberField("id", resultSet.getLong("id"));
+            jsonGenerator.writeStringField("content", resultSet.getString("content"));
+            jsonGenerator.writeEndObject();
+            jsonGenerator.writeRaw('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -1,7 +1,15 @@
 package dev.samsanders.demo.rabbitmq.publisher.thing;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.repository.CrudRepository;
 
+import java.util.List;
+import java.util.Optional;
+
 public interface ThingRepository extends CrudRepository<Thing, Long> {
 
+    List<Thing> findByIdGreaterThanOrderById(long id, Pageable pageable);
+
+    Optional<ThingVersion> findVersionById(long id);
+
 }
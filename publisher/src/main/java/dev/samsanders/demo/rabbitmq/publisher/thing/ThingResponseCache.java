@@ -0,0 +1,83 @@
+package dev.samsanders.demo.rabbitmq.publisher.thing;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * Caches GET /things/{id} responses as JSON bytes, invalidated when a ThingEvent's transaction commits.
+ */
+public class ThingResponseCache {
+
+    private final Cache<Long, CachedThing> cache;
+    private final ThingRepository thingRepository;
+    private final ObjectMapper objectMapper;
+
+    public ThingResponseCache(Cache<Long, CachedThing> cache, ThingRepository thingRepository,
+                              ObjectMapper objectMapper) {
+        this.cache = cache;
+        this.thingRepository = thingRepository;
+        this.objectMapper = objectMapper;
+    }
+
+    public Optional<CachedThing> getIfPresent(long id) {
+        return Optional.ofNullable(cache.getIfPresent(id));
+    }
+
+    public Optional<CachedThing> get(long id) {
+        return Optional.ofNullable(cache.get(id, this::load));
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
+    public void invalidate(ThingEvent thingEvent) {
+        cache.invalidate(thingEvent.getThingId());
+    }
+
+    private CachedThing load(long id) {
+        return thingRepository.findById(id)
+                .map(this::serialize)
+                .orElse(null);
+    }
+
+    private CachedThing serialize(Thing thing) {
+        try {
+            return new CachedThing(objectMapper.writeValueAsBytes(thing), thing.getVersion(),
+                    thing.getLastModifiedInstant());
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static final class CachedThing implements ThingVersion {
+
+        private final byte[] json;
+        private final Long version;
+        private final Instant lastModifiedInstant;
+
+        private CachedThing(byte[] json, Long version, Instant lastModifiedInstant) {
+            this.json = json;
+            this.version = version;
+            this.lastModifiedInstant = lastModifiedInstant;
+        }
+
+        public byte[] getJson() {
+            return json;
+        }
+
+        @Override
+        public Long getVersion() {
+            return version;
+        }
+
+        @Override
+        public Instant getLastModifiedInstant() {
+            return lastModifiedInstant;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package dev.samsanders.demo.rabbitmq.publisher.thing;
+
+import java.time.Instant;
+
+public interface ThingVersion {
+
+    Long getVersion();
+
+    Instant getLastModifiedInstant();
+
+}
@@ -0,0 +1,92 @@
+package dev.samsanders.demo.rabbitmq.publisher;
+
+import dev.samsanders.demo.rabbitmq.publisher.app.InFlightWindow;
+import dev.samsanders.demo.rabbitmq.publisher.thing.ThingEvent;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.Queue;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.data.util.StreamUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.RequestEntity;
+import org.springframework.http.ResponseEntity;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = "publisher.batch.enabled=true")
+class BatchingApplicationTests extends PublisherApplicationTests {
+
+    @Autowired
+    InFlightWindow inFlightWindow;
+
+    @Test
+    void batchOfThingEventsIsConfirmedOnce() throws InterruptedException {
+        // Create Things in one request
+        RequestEntity<String> createThingsRequest = RequestEntity
+                .post(URI.create(baseUrlWithPort + "/batch"))
+                .contentType(MediaType.APPLICATION_JSON)
+                .body("[{\"content\": \"some-content\"}, {\"content\": \"some-content\"}, " +
+                        "{\"content\": \"some-content\"}]");
+        ResponseEntity<List<URI>> createThingsResponse = testRestTemplate.exchange(createThingsRequest,
+                new ParameterizedTypeReference<List<URI>>() {
+                });
+        assertEquals(HttpStatus.CREATED, createThingsResponse.getStatusCode());
+        List<Long> thingIds = createThingsResponse.getBody().stream()
+                .map(location -> Long.parseLong(location.getPath().substring(location.getPath().lastIndexOf("/") + 1)))
+                .collect(Collectors.toList());
+
+        // Start the AMQP broker, and bind a queue to the exchange to see what's published
+        // Publish the ThingEvents manually (scheduling is disabled for tests)
+        // Use a CountDownLatch to know when the confirmed ThingEvents were marked as published
+        embeddedAmqpBroker.start();
+        Queue queue = new Queue("batching-application-tests", false, true, true);
+        amqpAdmin.declareQueue(queue);
+        amqpAdmin.declareBinding(BindingBuilder.bind(queue).to(exchange));
+        CountDownLatch countDownLatch = new CountDownLatch(thingIds.size());
+        thingEventConfirmCallback.setCountDownLatch(countDownLatch);
+        thingEventPublisher.publishAllUnpublishedThingEvents();
+
+        // Expect one batched message carrying the ThingEvents for all the Things
+        List<Message> messages = new ArrayList<>();
+        Message message;
+        while ((message = rabbitTemplate.receive(queue.getName(), 1000L)) != null) {
+            Message received = message;
+            if (thingIds.stream().anyMatch(thingId -> isForThing(received, thingId))) {
+                messages.add(received);
+            }
+        }
+        assertEquals(1, messages.size());
+        Message batch = messages.get(0);
+        assertEquals(MessageProperties.BATCH_FORMAT_LENGTH_HEADER4,
+                batch.getMessageProperties().getHeader(MessageProperties.SPRING_BATCH_FORMAT));
+        thingIds.forEach(thingId -> assertTrue(isForThing(batch, thingId)));
+
+        // Expect the one confirm marked every ThingEvent in the batch as published, and released it from the window
+        countDownLatch.await(5000L, TimeUnit.MILLISECONDS);
+        assertEquals(0, countDownLatch.getCount());
+        thingIds.forEach(thingId -> {
+            List<ThingEvent> thingEvents =
+                    StreamUtils.createStreamFromIterator(thingEventRepository.findAllByThingId(thingId).iterator())
+                            .collect(Collectors.toList());
+            assertEquals(1, thingEvents.size());
+            assertNotNull(thingEvents.get(0).getPublishedInstant());
+            assertFalse(inFlightWindow.contains(thingEvents.get(0).getId()));
+        });
+
+        embeddedAmqpBroker.stop();
+    }
+
+}
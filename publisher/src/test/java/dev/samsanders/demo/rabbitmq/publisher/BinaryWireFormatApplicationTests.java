@@ -0,0 +1,8 @@
+package dev.samsanders.demo.rabbitmq.publisher;
+
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = "publisher.wire-format=binary")
+class BinaryWireFormatApplicationTests extends PublisherApplicationTests {
+}
@@ -0,0 +1,105 @@
+package dev.samsanders.demo.rabbitmq.publisher;
+
+import dev.samsanders.demo.rabbitmq.publisher.app.ThingEventConfirmCallback;
+import dev.samsanders.demo.rabbitmq.publisher.app.ThingEventPublisher;
+import dev.samsanders.demo.rabbitmq.publisher.thing.JournalThingEventOutbox;
+import dev.samsanders.demo.rabbitmq.publisher.thing.ThingEventOutbox;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.RequestEntity;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = {
+        "publisher.outbox.store=journal",
+        "publisher.things.events.feed.enabled=false"
+})
+@ActiveProfiles("test")
+@TestInstance(Lifecycle.PER_CLASS)
+class JournalOutboxApplicationTests {
+
+    private static final String BASE_URL = "http://localhost:%d/things";
+    private String baseUrlWithPort;
+
+    @Autowired
+    EmbeddedAmqpBroker embeddedAmqpBroker;
+
+    @Autowired
+    TestRestTemplate testRestTemplate;
+
+    @Autowired
+    ThingEventOutbox thingEventOutbox;
+
+    @Autowired
+    ThingEventPublisher thingEventPublisher;
+
+    @Autowired
+    ThingEventConfirmCallback thingEventConfirmCallback;
+
+    @LocalServerPort
+    int port;
+
+    @DynamicPropertySource
+    static void journalDirectory(DynamicPropertyRegistry registry) throws IOException {
+        String directory = Files.createTempDirectory("publisher-outbox").toString();
+        registry.add("publisher.outbox.journal.directory", () -> directory);
+    }
+
+    @BeforeAll
+    void beforeAll() {
+        baseUrlWithPort = String.format(BASE_URL, port);
+    }
+
+    @Test
+    void happyPath() throws InterruptedException {
+        JournalThingEventOutbox journal = (JournalThingEventOutbox) thingEventOutbox;
+        long cursor = journal.getCursor();
+
+        // Create a Thing
+        RequestEntity<String> createThingRequest = RequestEntity
+                .post(URI.create(baseUrlWithPort))
+                .contentType(MediaType.APPLICATION_JSON)
+                .body("{\"content\": \"some-content\"}");
+        ResponseEntity<Void> createThingResponse = testRestTemplate.exchange(createThingRequest, Void.class);
+
+        // Expect a ThingEvent was appended to the journal, but not confirmed (scheduling is disabled for tests)
+        assertEquals(HttpStatus.CREATED, createThingResponse.getStatusCode());
+        assertEquals(cursor + 1, journal.getNextId());
+        assertEquals(cursor, journal.getCursor());
+
+        // Start the AMQP broker
+        // Publish the ThingEvent manually (scheduling is disabled for tests)
+        // Use a CountDownLatch to know when the ConfirmCallback was invoked
+        embeddedAmqpBroker.start();
+        CountDownLatch countDownLatch = new CountDownLatch(1);
+        thingEventConfirmCallback.setCountDownLatch(countDownLatch);
+        thingEventPublisher.publishAllUnpublishedThingEvents();
+
+        // Expect the journal's cursor moved past the ThingEvent
+        countDownLatch.await(1000L, TimeUnit.MILLISECONDS);
+        assertEquals(0, countDownLatch.getCount());
+        assertEquals(cursor + 1, journal.getCursor());
+
+        embeddedAmqpBroker.stop();
+    }
+
+}
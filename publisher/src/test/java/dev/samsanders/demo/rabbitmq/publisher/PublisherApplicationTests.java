@@ -1,5 +1,6 @@
 package dev.samsanders.demo.rabbitmq.publisher;
 
+import dev.samsanders.demo.rabbitmq.publisher.app.ThingEventCodec;
 import dev.samsanders.demo.rabbitmq.publisher.app.ThingEventConfirmCallback;
 import dev.samsanders.demo.rabbitmq.publisher.app.ThingEventPublisher;
 import dev.samsanders.demo.rabbitmq.publisher.thing.ThingEvent;
@@ -9,6 +10,12 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 import org.junit.jupiter.api.TestInstance.Lifecycle;
 import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.FanoutExchange;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
@@ -22,6 +29,8 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.ActiveProfiles;
 
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -35,7 +44,7 @@ import static org.junit.jupiter.api.Assertions.*;
 class PublisherApplicationTests {
 
     private static final String BASE_URL = "http://localhost:%d/things";
-    private String baseUrlWithPort;
+    String baseUrlWithPort;
 
     @Autowired
     EmbeddedAmqpBroker embeddedAmqpBroker;
@@ -52,6 +61,15 @@ class PublisherApplicationTests {
     @Autowired
     ThingEventConfirmCallback thingEventConfirmCallback;
 
+    @Autowired
+    AmqpAdmin amqpAdmin;
+
+    @Autowired
+    RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    FanoutExchange exchange;
+
     @LocalServerPort
     int port;
 
@@ -98,6 +116,46 @@ class PublisherApplicationTests {
         embeddedAmqpBroker.stop();
     }
 
+    @Test
+    void coalescesPendingThingEventsPerThing() {
+        // Create a Thing, and change it twice more before the relay runs (scheduling is disabled for tests)
+        RequestEntity<String> createThingRequest = RequestEntity
+                .post(URI.create(baseUrlWithPort))
+                .contentType(MediaType.APPLICATION_JSON)
+                .body("{\"content\": \"some-content\"}");
+        ResponseEntity<Void> createThingResponse = testRestTemplate.exchange(createThingRequest, Void.class);
+        long thingId = getThingIdFromResponse(createThingResponse);
+        thingEventRepository.save(new ThingEvent(thingId));
+        thingEventRepository.save(new ThingEvent(thingId));
+
+        // Start the AMQP broker, and bind a queue to the exchange to see what's published
+        // Publish the ThingEvents manually (scheduling is disabled for tests)
+        embeddedAmqpBroker.start();
+        Queue queue = new Queue("publisher-application-tests", false, true, true);
+        amqpAdmin.declareQueue(queue);
+        amqpAdmin.declareBinding(BindingBuilder.bind(queue).to(exchange));
+        thingEventPublisher.publishAllUnpublishedThingEvents();
+
+        // Expect one message for the Thing
+        long thingMessages = 0;
+        Message message;
+        while ((message = rabbitTemplate.receive(queue.getName(), 1000L)) != null) {
+            if (isForThing(message, thingId)) {
+                thingMessages++;
+            }
+        }
+        assertEquals(1, thingMessages);
+
+        // Expect every ThingEvent for the Thing was marked as published
+        List<ThingEvent> thingEvents =
+                StreamUtils.createStreamFromIterator(thingEventRepository.findAllByThingId(thingId).iterator())
+                        .collect(Collectors.toList());
+        assertEquals(3, thingEvents.size());
+        thingEvents.forEach(thingEvent -> assertNotNull(thingEvent.getPublishedInstant()));
+
+        embeddedAmqpBroker.stop();
+    }
+
     @Test
     void sadPath_brokerUnavailable() {
         // Create a Thing
@@ -123,6 +181,14 @@ class PublisherApplicationTests {
         }
     }
 
+    static boolean isForThing(Message message, long thingId) {
+        if (ThingEventCodec.CONTENT_TYPE.equals(message.getMessageProperties().getContentType())) {
+            return ByteBuffer.wrap(message.getBody(), 1, Long.BYTES).getLong() == thingId;
+        }
+
+        return new String(message.getBody(), StandardCharsets.UTF_8).contains(String.format("/things/%d\"", thingId));
+    }
+
     private long getThingIdFromResponse(ResponseEntity<Void> createThingResponse) {
         String thingLocationPath = createThingResponse.getHeaders().getLocation().getPath();
         long thingId = Long.parseLong(thingLocationPath.substring(thingLocationPath.lastIndexOf("/") + 1));
@@ -0,0 +1,198 @@
+package dev.samsanders.demo.rabbitmq.publisher;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.samsanders.demo.rabbitmq.publisher.thing.ThingEvent;
+import dev.samsanders.demo.rabbitmq.publisher.thing.ThingEventOutbox;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.RequestEntity;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+@TestInstance(Lifecycle.PER_CLASS)
+class ThingApiApplicationTests {
+
+    private static final String BASE_URL = "http://localhost:%d";
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private String baseUrlWithPort;
+
+    @Autowired
+    TestRestTemplate testRestTemplate;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    ApplicationEventPublisher applicationEventPublisher;
+
+    @Autowired
+    ThingEventOutbox thingEventOutbox;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @LocalServerPort
+    int port;
+
+    @BeforeAll
+    void beforeAll() {
+        baseUrlWithPort = String.format(BASE_URL, port);
+    }
+
+    @Test
+    void pagesThroughThingsToTheEnd() {
+        List<Long> thingIds = createThings(5);
+
+        // Follow the next links from just before the first Thing, two Things at a time
+        List<Long> pagedThingIds = new ArrayList<>();
+        List<Integer> pageSizes = new ArrayList<>();
+        URI next = URI.create(String.format("%s/things?after=%d&limit=2", baseUrlWithPort, thingIds.get(0) - 1));
+        while (next != null) {
+            ResponseEntity<List<Map<String, Object>>> response = testRestTemplate.exchange(
+                    RequestEntity.get(next).accept(MediaType.APPLICATION_JSON).build(),
+                    new ParameterizedTypeReference<List<Map<String, Object>>>() {
+                    });
+            assertEquals(HttpStatus.OK, response.getStatusCode());
+            response.getBody().forEach(thing -> pagedThingIds.add(((Number) thing.get("id")).longValue()));
+            pageSizes.add(response.getBody().size());
+            next = nextLink(response.getHeaders());
+        }
+
+        // Expect every Thing once, in id order, and no next link on the short last page
+        assertEquals(thingIds, pagedThingIds);
+        assertEquals(List.of(2, 2, 1), pageSizes);
+    }
+
+    @Test
+    void streamsThingsAsNdjson() throws Exception {
+        List<Long> thingIds = createThings(3);
+
+        RequestEntity<Void> streamRequest = RequestEntity
+                .get(URI.create(String.format("%s/things?after=%d", baseUrlWithPort, thingIds.get(0) - 1)))
+                .accept(MediaType.APPLICATION_NDJSON)
+                .build();
+        ResponseEntity<String> streamResponse = testRestTemplate.exchange(streamRequest, String.class);
+
+        // Expect one JSON object per line, one line per Thing
+        assertEquals(HttpStatus.OK, streamResponse.getStatusCode());
+        assertTrue(MediaType.APPLICATION_NDJSON.isCompatibleWith(streamResponse.getHeaders().getContentType()));
+        String[] lines = streamResponse.getBody().split("\n");
+        assertEquals(thingIds.size(), lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            JsonNode thing = objectMapper.readTree(lines[i]);
+            assertEquals(thingIds.get(i).longValue(), thing.get("id").asLong());
+            assertEquals("some-content-" + i, thing.get("content").asText());
+        }
+    }
+
+    @Test
+    void servesThingsFromTheCacheUntilAThingEventCommits() {
+        long thingId = createThings(1).get(0);
+        assertEquals("some-content-0", readContent(thingId));
+
+        // Change the Thing behind the cache's back
+        jdbcTemplate.update("update thing set content = ? where id = ?", "other-content", thingId);
+
+        // Expect the cached response
+        assertEquals("some-content-0", readContent(thingId));
+
+        new TransactionTemplate(transactionManager)
+                .executeWithoutResult(status -> applicationEventPublisher.publishEvent(new ThingEvent(thingId)));
+
+        // Expect the ThingEvent's commit invalidated the cached response
+        assertEquals("other-content", readContent(thingId));
+    }
+
+    @Test
+    void reportsTheOutbox() {
+        // Create Things, whose ThingEvents stay unpublished without a broker
+        createThings(2);
+
+        ResponseEntity<Map<String, Object>> outboxResponse = testRestTemplate.exchange(
+                RequestEntity.get(URI.create(baseUrlWithPort + "/actuator/outbox?limit=1")).build(),
+                new ParameterizedTypeReference<Map<String, Object>>() {
+                });
+
+        // Expect the pending count and the oldest ThingEvent, as the endpoint and as meters
+        assertEquals(HttpStatus.OK, outboxResponse.getStatusCode());
+        long pending = thingEventOutbox.countUnpublished();
+        assertTrue(pending >= 2);
+        assertEquals(pending, ((Number) outboxResponse.getBody().get("pending")).longValue());
+        List<?> oldest = (List<?>) outboxResponse.getBody().get("oldest");
+        assertEquals(1, oldest.size());
+        assertEquals(thingEventOutbox.findOldestUnpublished(1).get(0).getId(),
+                ((Number) ((Map<?, ?>) oldest.get(0)).get("id")).longValue());
+
+        assertEquals(pending, meterRegistry.get("publisher.outbox.pending").gauge().value());
+        assertTrue(meterRegistry.get("publisher.outbox.oldest.age").gauge().value() >= 0);
+    }
+
+    private List<Long> createThings(int count) {
+        String things = IntStream.range(0, count)
+                .mapToObj(i -> String.format("{\"content\": \"some-content-%d\"}", i))
+                .collect(Collectors.joining(", ", "[", "]"));
+        RequestEntity<String> createThingsRequest = RequestEntity
+                .post(URI.create(baseUrlWithPort + "/things/batch"))
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(things);
+        ResponseEntity<List<URI>> createThingsResponse = testRestTemplate.exchange(createThingsRequest,
+                new ParameterizedTypeReference<List<URI>>() {
+                });
+        assertEquals(HttpStatus.CREATED, createThingsResponse.getStatusCode());
+
+        return createThingsResponse.getBody().stream()
+                .map(location -> Long.parseLong(location.getPath().substring(location.getPath().lastIndexOf("/") + 1)))
+                .collect(Collectors.toList());
+    }
+
+    private String readContent(long thingId) {
+        ResponseEntity<Map<String, Object>> readThingResponse = testRestTemplate.exchange(
+                RequestEntity.get(URI.create(String.format("%s/things/%d", baseUrlWithPort, thingId))).build(),
+                new ParameterizedTypeReference<Map<String, Object>>() {
+                });
+        assertEquals(HttpStatus.OK, readThingResponse.getStatusCode());
+        return (String) readThingResponse.getBody().get("content");
+    }
+
+    private static URI nextLink(HttpHeaders headers) {
+        String link = headers.getFirst(HttpHeaders.LINK);
+        if (link == null) {
+            return null;
+        }
+
+        assertTrue(link.endsWith("rel=\"next\""));
+        return URI.create(link.substring(link.indexOf('<') + 1, link.indexOf('>')));
+    }
+
+}
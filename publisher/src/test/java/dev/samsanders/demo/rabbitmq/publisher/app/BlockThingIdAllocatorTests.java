@@ -0,0 +1,144 @@
+package dev.samsanders.demo.rabbitmq.publisher.app;
+
+import dev.samsanders.demo.rabbitmq.publisher.thing.IdSegment;
+import dev.samsanders.demo.rabbitmq.publisher.thing.IdSegmentRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class BlockThingIdAllocatorTests {
+
+    private static final long BLOCK_SIZE = 10L;
+
+    private final AtomicReference<Long> segmentNextValue = new AtomicReference<>();
+    private IdSegmentRepository idSegmentRepository;
+    private PlatformTransactionManager transactionManager;
+
+    @BeforeEach
+    void beforeEach() {
+        idSegmentRepository = mock(IdSegmentRepository.class);
+        when(idSegmentRepository.advance(anyString(), anyLong())).thenAnswer(invocation -> {
+            synchronized (segmentNextValue) {
+                if (segmentNextValue.get() == null) {
+                    return 0;
+                }
+                segmentNextValue.set(segmentNextValue.get() + invocation.<Long>getArgument(1));
+                return 1;
+            }
+        });
+        when(idSegmentRepository.save(any(IdSegment.class))).thenAnswer(invocation -> {
+            IdSegment idSegment = invocation.getArgument(0);
+            synchronized (segmentNextValue) {
+                if (segmentNextValue.get() != null) {
+                    throw new DataIntegrityViolationException("Duplicate id segment");
+                }
+                segmentNextValue.set(idSegment.getNextValue());
+            }
+            return idSegment;
+        });
+        when(idSegmentRepository.findById(anyString())).thenAnswer(invocation ->
+                Optional.ofNullable(segmentNextValue.get())
+                        .map(nextValue -> new IdSegment(invocation.getArgument(0), nextValue)));
+
+        transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+    }
+
+    @Test
+    void allocatesAcrossBlocks() {
+        BlockThingIdAllocator allocator =
+                new BlockThingIdAllocator(idSegmentRepository, transactionManager, BLOCK_SIZE);
+
+        // Allocate past the end of the first two blocks
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < BLOCK_SIZE * 2 + 5; i++) {
+            ids.add(allocator.nextId());
+        }
+
+        // Expect consecutive ids, starting at 1
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(i + 1L, ids.get(i));
+        }
+        assertEquals(BLOCK_SIZE * 3 + 1, segmentNextValue.get());
+    }
+
+    @Test
+    void reservesAnotherBlockWhenAnotherNodeCreatedTheSegmentFirst() {
+        BlockThingIdAllocator allocator =
+                new BlockThingIdAllocator(idSegmentRepository, transactionManager, BLOCK_SIZE);
+
+        // Another node creates the segment, and takes the first block, between this node's update and insert
+        when(idSegmentRepository.advance(anyString(), anyLong()))
+                .thenAnswer(invocation -> {
+                    segmentNextValue.set(1L + BLOCK_SIZE);
+                    return 0;
+                })
+                .thenAnswer(invocation -> {
+                    segmentNextValue.set(segmentNextValue.get() + BLOCK_SIZE);
+                    return 1;
+                });
+
+        // Expect ids from the second block
+        assertEquals(BLOCK_SIZE + 1, allocator.nextId());
+        assertEquals(BLOCK_SIZE + 2, allocator.nextId());
+    }
+
+    @Test
+    void allocatesUniqueIncreasingIdsConcurrently() throws Exception {
+        BlockThingIdAllocator allocator =
+                new BlockThingIdAllocator(idSegmentRepository, transactionManager, BLOCK_SIZE);
+        int threads = 8;
+        int idsPerThread = 1000;
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        List<Callable<List<Long>>> tasks = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            tasks.add(() -> {
+                List<Long> ids = new ArrayList<>();
+                for (int j = 0; j < idsPerThread; j++) {
+                    ids.add(allocator.nextId());
+                }
+                return ids;
+            });
+        }
+
+        Set<Long> allIds = ConcurrentHashMap.newKeySet();
+        try {
+            for (Future<List<Long>> future : executorService.invokeAll(tasks)) {
+                List<Long> ids = future.get();
+
+                // Expect each thread sees increasing ids
+                for (int i = 1; i < ids.size(); i++) {
+                    assertTrue(ids.get(i) > ids.get(i - 1));
+                }
+                allIds.addAll(ids);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        // Expect no id was handed out twice
+        assertEquals(threads * idsPerThread, allIds.size());
+    }
+
+}
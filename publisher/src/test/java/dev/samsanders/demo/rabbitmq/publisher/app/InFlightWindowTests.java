@@ -0,0 +1,112 @@
+package dev.samsanders.demo.rabbitmq.publisher.app;
+
+import dev.samsanders.demo.rabbitmq.publisher.app.InFlightWindow.Acquisition;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InFlightWindowTests {
+
+    @Test
+    void tellsAlreadyInFlightFromFull() throws Exception {
+        InFlightWindow inFlightWindow = new InFlightWindow(2);
+
+        assertEquals(Acquisition.ACQUIRED, inFlightWindow.tryAcquire(1L, Duration.ZERO));
+        assertEquals(Acquisition.ALREADY_IN_FLIGHT, inFlightWindow.tryAcquire(1L, Duration.ZERO));
+        assertEquals(Acquisition.ACQUIRED, inFlightWindow.tryAcquire(2L, Duration.ZERO));
+
+        // Expect a ThingEvent that's in flight is reported as such, even though the window is full
+        assertEquals(Acquisition.ALREADY_IN_FLIGHT, inFlightWindow.tryAcquire(2L, Duration.ofSeconds(1)));
+        assertEquals(Acquisition.FULL, inFlightWindow.tryAcquire(3L, Duration.ZERO));
+
+        inFlightWindow.release(1L);
+        assertEquals(Acquisition.ACQUIRED, inFlightWindow.tryAcquire(3L, Duration.ZERO));
+        assertEquals(2, inFlightWindow.size());
+    }
+
+    @Test
+    void halvesTheLimitForEveryNackedThingEvent() {
+        InFlightWindow inFlightWindow = new InFlightWindow(8);
+
+        inFlightWindow.confirmed(false, 1);
+        assertEquals(4, inFlightWindow.getLimit());
+
+        // Expect a nacked batch of 2 ThingEvents halves the limit twice
+        inFlightWindow.confirmed(false, 2);
+        assertEquals(1, inFlightWindow.getLimit());
+
+        // Expect the limit never drops below 1
+        inFlightWindow.confirmed(false, 40);
+        assertEquals(1, inFlightWindow.getLimit());
+    }
+
+    @Test
+    void growsTheLimitByOneAfterLimitAckedThingEvents() {
+        InFlightWindow inFlightWindow = new InFlightWindow(4);
+        inFlightWindow.confirmed(false, 1);
+        assertEquals(2, inFlightWindow.getLimit());
+
+        inFlightWindow.confirmed(true, 1);
+        assertEquals(2, inFlightWindow.getLimit());
+        inFlightWindow.confirmed(true, 1);
+        assertEquals(3, inFlightWindow.getLimit());
+
+        // Expect an acked batch counts as its ThingEvents, and the limit never grows past the maximum
+        inFlightWindow.confirmed(true, 2);
+        assertEquals(3, inFlightWindow.getLimit());
+        inFlightWindow.confirmed(true, 100);
+        assertEquals(4, inFlightWindow.getLimit());
+    }
+
+    @Test
+    void acknowledgesABatchLikeItsThingEvents() {
+        InFlightWindow batched = new InFlightWindow(8);
+        InFlightWindow unbatched = new InFlightWindow(8);
+        batched.confirmed(false, 3);
+        unbatched.confirmed(false, 1);
+        unbatched.confirmed(false, 1);
+        unbatched.confirmed(false, 1);
+        assertEquals(1, batched.getLimit());
+        assertEquals(1, unbatched.getLimit());
+
+        batched.confirmed(true, 6);
+        for (int i = 0; i < 6; i++) {
+            unbatched.confirmed(true, 1);
+        }
+
+        // Expect 1 + 2 + 3 acks grew both limits from 1 to 4
+        assertEquals(4, batched.getLimit());
+        assertEquals(4, unbatched.getLimit());
+    }
+
+    @Test
+    void blocksAcquiringUntilUnblocked() throws Exception {
+        InFlightWindow inFlightWindow = new InFlightWindow(2);
+        inFlightWindow.setBlocked(true);
+        assertEquals(Acquisition.FULL, inFlightWindow.tryAcquire(1L, Duration.ZERO));
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Future<Acquisition> acquisition =
+                    executorService.submit(() -> inFlightWindow.tryAcquire(1L, Duration.ofSeconds(5)));
+
+            // Expect the acquisition waits while the window is blocked, though it isn't full
+            assertThrows(TimeoutException.class, () -> acquisition.get(200L, TimeUnit.MILLISECONDS));
+            assertEquals(0, inFlightWindow.size());
+
+            inFlightWindow.setBlocked(false);
+            assertEquals(Acquisition.ACQUIRED, acquisition.get(5L, TimeUnit.SECONDS));
+            assertTrue(inFlightWindow.contains(1L));
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+}
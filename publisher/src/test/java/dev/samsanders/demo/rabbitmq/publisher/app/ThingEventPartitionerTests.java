@@ -0,0 +1,50 @@
+package dev.samsanders.demo.rabbitmq.publisher.app;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ThingEventPartitionerTests {
+
+    private static final int THINGS = 100_000;
+
+    @Test
+    void spreadsThingsEvenlyOverThePartitions() {
+        ThingEventPartitioner thingEventPartitioner = new ThingEventPartitioner(8);
+        int[] things = new int[8];
+
+        for (long thingId = 1; thingId <= THINGS; thingId++) {
+            things[thingEventPartitioner.partition(thingId)]++;
+        }
+
+        // Expect each partition got within 5% of an even share
+        for (int partition = 0; partition < things.length; partition++) {
+            assertEquals(THINGS / 8.0, things[partition], THINGS / 8.0 * 0.05, "Partition " + partition);
+        }
+    }
+
+    @Test
+    void movesOnlyThingsForTheNewPartition() {
+        ThingEventPartitioner eightPartitions = new ThingEventPartitioner(8);
+        ThingEventPartitioner ninePartitions = new ThingEventPartitioner(9);
+        int moved = 0;
+
+        for (long thingId = 1; thingId <= THINGS; thingId++) {
+            int partition = ninePartitions.partition(thingId);
+            if (partition != eightPartitions.partition(thingId)) {
+                assertEquals(8, partition);
+                moved++;
+            }
+        }
+
+        // Expect about a ninth of the Things moved, rather than most of them
+        assertEquals(THINGS / 9.0, moved, THINGS / 9.0 * 0.05);
+    }
+
+    @Test
+    void routesAThingToTheSamePartitionEveryTime() {
+        assertEquals(new ThingEventPartitioner(8).routingKey(42L), new ThingEventPartitioner(8).routingKey(42L));
+        assertEquals("0", new ThingEventPartitioner(1).routingKey(42L));
+    }
+
+}
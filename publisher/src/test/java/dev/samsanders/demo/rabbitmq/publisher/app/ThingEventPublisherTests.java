@@ -0,0 +1,129 @@
+package dev.samsanders.demo.rabbitmq.publisher.app;
+
+import dev.samsanders.demo.rabbitmq.publisher.app.ThingEventPublisher.WireFormat;
+import dev.samsanders.demo.rabbitmq.publisher.thing.ThingEvent;
+import dev.samsanders.demo.rabbitmq.publisher.thing.ThingEventOutbox;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ThingEventPublisherTests {
+
+    private final RabbitTemplate rabbitTemplate = mock(RabbitTemplate.class);
+    private final ThingEventOutbox thingEventOutbox = mock(ThingEventOutbox.class);
+    private ThingEventPublisher thingEventPublisher;
+
+    @AfterEach
+    void afterEach() {
+        thingEventPublisher.shutdown();
+    }
+
+    @Test
+    void publishesCommittedThingEventsOffTheCommittingThread() throws Exception {
+        InFlightWindow inFlightWindow = new InFlightWindow(10);
+        thingEventPublisher = thingEventPublisher(inFlightWindow);
+        Set<Thread> sendingThreads = ConcurrentHashMap.newKeySet();
+        CountDownLatch countDownLatch = new CountDownLatch(3);
+        doAnswer(invocation -> {
+            sendingThreads.add(Thread.currentThread());
+            countDownLatch.countDown();
+            return null;
+        }).when(rabbitTemplate).send(any(), any(), any(Message.class), any(CorrelationData.class));
+
+        commit(thingEvent(1L), thingEvent(2L), thingEvent(3L));
+
+        // Expect every ThingEvent was claimed a page at a time and published, but not by the committing thread
+        countDownLatch.await(5000L, TimeUnit.MILLISECONDS);
+        assertEquals(0, countDownLatch.getCount());
+        assertFalse(sendingThreads.contains(Thread.currentThread()));
+        verify(thingEventOutbox, times(3)).append(any());
+        verify(thingEventOutbox, times(2)).claim(any());
+        assertEquals(3, inFlightWindow.size());
+    }
+
+    @Test
+    void leavesThingEventsForTheRelayWhenTheWindowIsFull() {
+        InFlightWindow inFlightWindow = new InFlightWindow(1);
+        thingEventPublisher = thingEventPublisher(inFlightWindow);
+
+        commit(thingEvent(1L), thingEvent(2L));
+
+        // Expect only the ThingEvent that fit in the window was published, without waiting for a slot
+        verify(rabbitTemplate, after(500L).times(1)).send(any(), any(), any(Message.class), any(CorrelationData.class));
+        assertTrue(inFlightWindow.contains(1L));
+        assertFalse(inFlightWindow.contains(2L));
+    }
+
+    @Test
+    void publishesNothingWhenTheTransactionRollsBack() {
+        thingEventPublisher = thingEventPublisher(new InFlightWindow(10));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            thingEventPublisher.saveThingEvent(thingEvent(1L));
+            TransactionSynchronizationUtils.invokeAfterCompletion(
+                    TransactionSynchronizationManager.getSynchronizations(),
+                    TransactionSynchronization.STATUS_ROLLED_BACK);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        verify(thingEventOutbox, after(200L).never()).claim(any());
+        verify(rabbitTemplate, never()).send(any(), any(), any(Message.class), any(CorrelationData.class));
+    }
+
+    private ThingEventPublisher thingEventPublisher(InFlightWindow inFlightWindow) {
+        when(thingEventOutbox.claim(any())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        return new ThingEventPublisher(rabbitTemplate, thingEventOutbox, "https://samsanders.dev", inFlightWindow, 2,
+                Duration.ofSeconds(5), true, 10, WireFormat.BINARY, null,
+                new ThingEventConfirmTracker(inFlightWindow, new SimpleMeterRegistry()), null);
+    }
+
+    private void commit(ThingEvent... thingEvents) {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            for (ThingEvent thingEvent : thingEvents) {
+                thingEventPublisher.saveThingEvent(thingEvent);
+            }
+            TransactionSynchronizationUtils.triggerAfterCommit();
+            TransactionSynchronizationUtils.invokeAfterCompletion(
+                    TransactionSynchronizationManager.getSynchronizations(),
+                    TransactionSynchronization.STATUS_COMMITTED);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    private static ThingEvent thingEvent(long id) {
+        ThingEvent thingEvent = mock(ThingEvent.class);
+        when(thingEvent.getId()).thenReturn(id);
+        when(thingEvent.getThingId()).thenReturn(id);
+        when(thingEvent.getCreatedInstant()).thenReturn(Instant.now());
+        return thingEvent;
+    }
+
+}
@@ -0,0 +1,72 @@
+package dev.samsanders.demo.rabbitmq.publisher.app;
+
+import dev.samsanders.demo.rabbitmq.publisher.thing.ThingEvent;
+import dev.samsanders.demo.rabbitmq.publisher.thing.ThingEventRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+class ThingEventRetentionTests {
+
+    private static final Duration MAX_AGE = Duration.ofDays(7);
+
+    @Autowired
+    ThingEventRepository thingEventRepository;
+
+    @Test
+    void purgesThingEventsPublishedBeforeTheMaxAge() {
+        saveThingEvents(3, Instant.now().minus(MAX_AGE).minus(Duration.ofDays(1)));
+        saveThingEvents(2, Instant.now());
+        saveThingEvents(2, null);
+
+        new ThingEventRetention(thingEventRepository, MAX_AGE, 100, 2, 10).purgePublishedThingEvents();
+
+        // Expect only the ThingEvents published before the max age were purged
+        assertEquals(2, thingEventRepository.countByPublishedInstantIsNotNull());
+        assertEquals(2, thingEventRepository.countByPublishedInstantIsNull());
+    }
+
+    @Test
+    void capsTheNumberOfPublishedThingEvents() {
+        saveThingEvents(5, Instant.now());
+        saveThingEvents(2, null);
+
+        new ThingEventRetention(thingEventRepository, MAX_AGE, 2, 2, 10).purgePublishedThingEvents();
+
+        // Expect the oldest published ThingEvents were purged down to the cap, and no unpublished ones
+        assertEquals(2, thingEventRepository.countByPublishedInstantIsNotNull());
+        assertEquals(2, thingEventRepository.countByPublishedInstantIsNull());
+    }
+
+    @Test
+    void boundsTheBatchesPerRun() {
+        saveThingEvents(5, Instant.now().minus(MAX_AGE).minus(Duration.ofDays(1)));
+        saveThingEvents(1, null);
+        ThingEventRetention thingEventRetention = new ThingEventRetention(thingEventRepository, MAX_AGE, 100, 2, 2);
+
+        thingEventRetention.purgePublishedThingEvents();
+
+        // Expect two batches of two were purged, leaving the rest for the next run
+        assertEquals(1, thingEventRepository.countByPublishedInstantIsNotNull());
+
+        thingEventRetention.purgePublishedThingEvents();
+
+        assertEquals(0, thingEventRepository.countByPublishedInstantIsNotNull());
+        assertEquals(1, thingEventRepository.countByPublishedInstantIsNull());
+    }
+
+    private void saveThingEvents(int count, Instant publishedInstant) {
+        for (int thingId = 1; thingId <= count; thingId++) {
+            ThingEvent thingEvent = new ThingEvent(thingId);
+            thingEvent.setPublishedInstant(publishedInstant);
+            thingEventRepository.save(thingEvent);
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+package dev.samsanders.demo.rabbitmq.publisher.thing;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JournalThingEventOutboxTests {
+
+    private static final int SEGMENT_RECORDS = 2;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void reclaimsUnconfirmedThingEventsAfterReopening() throws IOException {
+        try (JournalThingEventOutbox journal = new JournalThingEventOutbox(directory, SEGMENT_RECORDS)) {
+            appendThingEvents(journal, 3);
+            journal.markPublished(List.of(1L), Instant.now());
+        }
+
+        try (JournalThingEventOutbox journal = new JournalThingEventOutbox(directory, SEGMENT_RECORDS)) {
+            // Expect the persisted cursor was reloaded, and the next id recovered from the last segment
+            assertEquals(2, journal.getCursor());
+            assertEquals(4, journal.getNextId());
+            assertEquals(List.of(2L, 3L), claimableIds(journal));
+
+            appendThingEvents(journal, 1);
+            assertEquals(List.of(2L, 3L, 4L), claimableIds(journal));
+        }
+    }
+
+    @Test
+    void skipsThingEventsConfirmedAheadOfTheCursor() throws IOException {
+        try (JournalThingEventOutbox journal = new JournalThingEventOutbox(directory, SEGMENT_RECORDS)) {
+            appendThingEvents(journal, 3);
+
+            journal.markPublished(List.of(3L), Instant.now());
+
+            // Expect ThingEvent 3 isn't claimed again, though the cursor can't move past unconfirmed ThingEvent 1
+            assertEquals(1, journal.getCursor());
+            assertEquals(List.of(1L, 2L), claimableIds(journal));
+            assertEquals(2, journal.countUnpublished());
+
+            journal.markPublished(List.of(1L, 2L), Instant.now());
+
+            assertEquals(4, journal.getCursor());
+            assertEquals(List.of(), claimableIds(journal));
+            assertEquals(0, journal.countUnpublished());
+        }
+    }
+
+    @Test
+    void deletesSegmentsBehindTheCursor() throws IOException {
+        try (JournalThingEventOutbox journal = new JournalThingEventOutbox(directory, SEGMENT_RECORDS)) {
+            appendThingEvents(journal, 5);
+            assertEquals(3, countSegments());
+
+            journal.markPublished(List.of(1L, 2L, 3L), Instant.now());
+
+            // Expect only the segment of ThingEvents 1 and 2 was deleted, since ThingEvent 4 is still unconfirmed
+            assertEquals(4, journal.getCursor());
+            assertEquals(2, countSegments());
+        }
+
+        try (JournalThingEventOutbox journal = new JournalThingEventOutbox(directory, SEGMENT_RECORDS)) {
+            assertEquals(6, journal.getNextId());
+            assertEquals(List.of(4L, 5L), claimableIds(journal));
+        }
+    }
+
+    @Test
+    void marksTheThingEventsOfARolledBackTransactionPublished() throws IOException {
+        try (JournalThingEventOutbox journal = new JournalThingEventOutbox(directory, SEGMENT_RECORDS)) {
+            TransactionSynchronizationManager.initSynchronization();
+            try {
+                journal.append(new ThingEvent(1L));
+                journal.append(new ThingEvent(2L));
+
+                // Expect nothing was written until the transaction commits
+                assertEquals(1, journal.getNextId());
+
+                // The journal is forced before the commit, and then the commit fails
+                TransactionSynchronizationUtils.triggerBeforeCommit(false);
+                assertEquals(3, journal.getNextId());
+                TransactionSynchronizationUtils.invokeAfterCompletion(
+                        TransactionSynchronizationManager.getSynchronizations(),
+                        TransactionSynchronization.STATUS_ROLLED_BACK);
+            } finally {
+                TransactionSynchronizationManager.clearSynchronization();
+            }
+
+            // Expect the rolled back ThingEvents will never be published
+            assertEquals(List.of(), claimableIds(journal));
+            assertEquals(3, journal.getCursor());
+        }
+    }
+
+    private static void appendThingEvents(JournalThingEventOutbox journal, int count) {
+        for (int thingId = 1; thingId <= count; thingId++) {
+            journal.append(new ThingEvent(thingId));
+        }
+    }
+
+    private static List<Long> claimableIds(JournalThingEventOutbox journal) {
+        return journal.claimNext(null, 10).getClaimedEvents().stream()
+                .map(ThingEvent::getId)
+                .collect(Collectors.toList());
+    }
+
+    private long countSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".segment")).count();
+        }
+    }
+
+}
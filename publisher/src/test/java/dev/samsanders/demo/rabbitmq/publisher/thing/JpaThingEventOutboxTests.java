@@ -0,0 +1,93 @@
+package dev.samsanders.demo.rabbitmq.publisher.thing;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Claims commit in their own transactions, so these tests commit too, and clean up after themselves.
+ */
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class JpaThingEventOutboxTests {
+
+    @Autowired
+    ThingEventRepository thingEventRepository;
+
+    @AfterEach
+    void afterEach() {
+        thingEventRepository.deleteAll();
+    }
+
+    @Test
+    void leasesClaimedThingEventsToTheirOwner() {
+        List<Long> ids = saveThingEvents(3);
+        JpaThingEventOutbox nodeA = new JpaThingEventOutbox(thingEventRepository, "node-a", Duration.ofMinutes(1));
+        JpaThingEventOutbox nodeB = new JpaThingEventOutbox(thingEventRepository, "node-b", Duration.ofMinutes(1));
+
+        assertEquals(ids, claimedIds(nodeA.claimNext(null, 10).getClaimedEvents()));
+
+        // Expect another node can't claim the leased ThingEvents, while their owner can renew its lease
+        assertEquals(List.of(), claimedIds(nodeB.claimNext(null, 10).getClaimedEvents()));
+        assertEquals(List.of(), claimedIds(nodeB.claim(findThingEvents(ids))));
+        assertEquals(ids, claimedIds(nodeA.claimNext(null, 10).getClaimedEvents()));
+    }
+
+    @Test
+    void letsAnotherNodeReclaimAnExpiredLease() throws InterruptedException {
+        List<Long> ids = saveThingEvents(2);
+        JpaThingEventOutbox nodeA = new JpaThingEventOutbox(thingEventRepository, "node-a", Duration.ofMillis(50));
+        JpaThingEventOutbox nodeB = new JpaThingEventOutbox(thingEventRepository, "node-b", Duration.ofMinutes(1));
+        assertEquals(ids, claimedIds(nodeA.claimNext(null, 10).getClaimedEvents()));
+
+        Thread.sleep(200L);
+
+        // Expect node B took over the expired lease, and node A can't take it back
+        assertEquals(ids, claimedIds(nodeB.claimNext(null, 10).getClaimedEvents()));
+        assertEquals(List.of(), claimedIds(nodeA.claimNext(null, 10).getClaimedEvents()));
+        assertEquals(List.of(), claimedIds(nodeA.claim(findThingEvents(ids))));
+    }
+
+    @Test
+    void neverClaimsPublishedThingEvents() {
+        List<Long> ids = saveThingEvents(2);
+        JpaThingEventOutbox nodeA = new JpaThingEventOutbox(thingEventRepository, "node-a", Duration.ofMinutes(1));
+
+        nodeA.markPublished(List.of(ids.get(0)), Instant.now());
+
+        assertEquals(List.of(ids.get(1)), claimedIds(nodeA.claimNext(null, 10).getClaimedEvents()));
+        assertEquals(List.of(ids.get(1)), claimedIds(nodeA.claim(findThingEvents(ids))));
+    }
+
+    private List<Long> saveThingEvents(int count) {
+        List<Long> ids = new ArrayList<>();
+        for (long thingId = 1; thingId <= count; thingId++) {
+            ids.add(thingEventRepository.save(new ThingEvent(thingId)).getId());
+        }
+        return ids;
+    }
+
+    private List<ThingEvent> findThingEvents(List<Long> ids) {
+        List<ThingEvent> thingEvents = new ArrayList<>();
+        thingEventRepository.findAllById(ids).forEach(thingEvents::add);
+        return thingEvents;
+    }
+
+    private static List<Long> claimedIds(List<ThingEvent> claimedEvents) {
+        return claimedEvents.stream()
+                .map(ThingEvent::getId)
+                .collect(Collectors.toList());
+    }
+
+}
@@ -0,0 +1,78 @@
+package dev.samsanders.demo.rabbitmq.publisher.thing;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class ThingEventControllerTests {
+
+    private static final Duration RETENTION_MAX_AGE = Duration.ofDays(7);
+
+    private ThingEventRepository thingEventRepository;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void beforeEach() {
+        thingEventRepository = mock(ThingEventRepository.class);
+        mockMvc = MockMvcBuilders.standaloneSetup(new ThingEventController(thingEventRepository,
+                "https://samsanders.dev", 2, Duration.ofSeconds(5), RETENTION_MAX_AGE)).build();
+    }
+
+    @Test
+    void pagesOnFromTheCursorThingEvent() throws Exception {
+        Instant createdInstant = Instant.now().minus(Duration.ofHours(1));
+        when(thingEventRepository.findById(1L)).thenReturn(Optional.of(new ThingEvent(1L, 1L, createdInstant)));
+        when(thingEventRepository.findSettledAfter(any(), eq(createdInstant), eq(1L), any())).thenReturn(List.of(
+                new ThingEvent(2L, 2L, createdInstant.plusMillis(1)),
+                new ThingEvent(3L, 3L, createdInstant.plusMillis(2))));
+
+        mockMvc.perform(get("/things/events").param("after", "1").param("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id").value(2))
+                .andExpect(jsonPath("$[1].thingUri").value("https://samsanders.dev/things/3"))
+                .andExpect(header().string(HttpHeaders.LINK, containsString("after=3")));
+    }
+
+    @Test
+    void goneWhenTheCursorThingEventWasPurged() throws Exception {
+        when(thingEventRepository.findById(anyLong())).thenReturn(Optional.empty());
+
+        mockMvc.perform(get("/things/events").param("after", "42"))
+                .andExpect(status().isGone());
+
+        // Expect the feed didn't restart from the oldest ThingEvent
+        verify(thingEventRepository, never()).findSettled(any(), any());
+        verify(thingEventRepository, never()).findSettledAfter(any(), any(), anyLong(), any());
+    }
+
+    @Test
+    void goneWhenTheCursorIsOlderThanRetention() throws Exception {
+        Instant afterCreatedInstant = Instant.now().minus(RETENTION_MAX_AGE).minus(Duration.ofDays(1));
+
+        mockMvc.perform(get("/things/events").param("afterCreatedInstant", afterCreatedInstant.toString()))
+                .andExpect(status().isGone());
+
+        verify(thingEventRepository, never()).findSettledAfter(any(), any(), anyLong(), any());
+    }
+
+}